@@ -18,9 +18,25 @@
 
 package eu.maxschuster.vaadin.localstorage;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.gwt.storage.client.Storage;
@@ -28,14 +44,24 @@ import com.google.gwt.storage.client.StorageEvent;
 import com.vaadin.server.AbstractClientConnector;
 import com.vaadin.server.AbstractExtension;
 import com.vaadin.server.Extension;
+import com.vaadin.server.ServiceDestroyEvent;
+import com.vaadin.server.ServiceDestroyListener;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
 import com.vaadin.shared.communication.ServerRpc;
 import com.vaadin.ui.AbstractComponent;
 import com.vaadin.ui.Component;
 import com.vaadin.ui.UI;
 import com.vaadin.util.ReflectTools;
 
+import eu.maxschuster.vaadin.localstorage.LocalStorageFlightRecorder.OperationType;
+import eu.maxschuster.vaadin.localstorage.LocalStorageFlightRecorder.Outcome;
 import eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageBinaryCodec;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageHash;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery;
 import eu.maxschuster.vaadin.localstorage.shared.LocalStorageServerRpc;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageSnapshotCodec;
 import eu.maxschuster.vaadin.localstorage.shared.LocalStorageState;
 
 /**
@@ -43,21 +69,116 @@ import eu.maxschuster.vaadin.localstorage.shared.LocalStorageState;
  * 
  * You have to use {@link LocalStorage#getCurrent()} or {@link LocalStorage#getCurrent(UI)} to get an instance of {@link LocalStorage}
  * 
+ * A {@link UI} can have several instances with different names,
+ * configurations and key namespaces, see
+ * {@link LocalStorage#getCurrent(UI, String)}.
+ * 
  * @author Max Schuster
  * @see Storage
  */
 @SuppressWarnings("serial")
 public class LocalStorage extends AbstractExtension {
 	
+	/**
+	 * Name of the instance returned by {@link #getCurrent()} and
+	 * {@link #getCurrent(UI)}
+	 */
+	public static final String DEFAULT_NAME = "";
+	
+	/**
+	 * Separates the name of an instance from the keys in its namespace
+	 */
+	private static final char NAMESPACE_SEPARATOR = ':';
+	
+	/**
+	 * Maximum number of bytes per chunk of a snapshot transfer
+	 */
+	private static final int SNAPSHOT_CHUNK_LENGTH = 32 * 1024;
+	
+	/**
+	 * Default of {@link #backgroundBudget}
+	 */
+	private static final int DEFAULT_BACKGROUND_BUDGET = 32;
+	
+	/**
+	 * Priority set by {@link #runWithPriority(LocalStoragePriority, Runnable)}
+	 */
+	private static final ThreadLocal<LocalStoragePriority> currentPriority =
+			new ThreadLocal<LocalStoragePriority>();
+	
 	/**
 	 * Java logger
 	 */
 	private final static Logger LOGGER = Logger.getLogger(LocalStorage.class.getName()); 
 	
 	/**
-	 * Map of callbacks
+	 * Map of callbacks. Not serialized, see {@link #writeObject(ObjectOutputStream)}.
+	 */
+	private transient LocalStorageItemCallbacks itemCallbacks = new LocalStorageItemCallbacks();
+	
+	/**
+	 * Operations that were pending when this instance got serialized. Their
+	 * callbacks fail on the next interaction.
+	 */
+	private transient List<Orphan> orphans = null;
+	
+	/**
+	 * Name of this instance
+	 */
+	private final String name;
+	
+	/**
+	 * Read the old data of an item on the client-side before it gets
+	 * overwritten
+	 */
+	private boolean fetchOldData = true;
+	
+	/**
+	 * Limiters shared by all instances of a {@link VaadinService}. Weak
+	 * keys, so an undeployed application doesn't stay reachable through
+	 * a jar shared by several applications.
+	 */
+	private static final Map<VaadinService, LocalStorageLimiter> applicationLimiters =
+			new WeakHashMap<VaadinService, LocalStorageLimiter>();
+	
+	/**
+	 * Limiter of this instance
+	 */
+	private LocalStorageLimiter limiter = null;
+	
+	/**
+	 * Mirrors the written items into a store or null
+	 */
+	private LocalStorageSync sync = null;
+	
+	/**
+	 * Records the operations of this instance. Diagnostic only, so it
+	 * isn't serialized.
+	 */
+	private transient volatile LocalStorageFlightRecorder flightRecorder = null;
+	
+	/**
+	 * Operations waiting for admission by {@link #limiter}
+	 */
+	private transient LinkedList<Operation> backlog = new LinkedList<Operation>();
+	
+	/**
+	 * Limiters that admitted the operations in flight by callback id
+	 */
+	private transient Map<Integer, LocalStorageLimiter[]> admissions =
+			new HashMap<Integer, LocalStorageLimiter[]>();
+	
+	/**
+	 * Admitted operations waiting for the next response
+	 */
+	private transient LocalStorageScheduler<Operation> scheduler =
+			new LocalStorageScheduler<Operation>();
+	
+	/**
+	 * Maximum number of {@link LocalStoragePriority#BACKGROUND} operations
+	 * sent per response
 	 */
-	private LocalStorageItemCallbacks itemCallbacks = new LocalStorageItemCallbacks();
+	private int backgroundBudget = DEFAULT_BACKGROUND_BUDGET;
 	
 	/**
 	 * {@link ServerRpc} that contains methods who get invoked by the client side.
@@ -71,30 +192,160 @@ public class LocalStorage extends AbstractExtension {
 		@Override
 		public void callLocalStorageItemCallback(int callback, boolean success, String key, String oldData, String data) {
 			synchronized (itemCallbacks) {
-				LocalStorageItemCallback callbackImpl = itemCallbacks.get(callback);
-				if(callbackImpl != null) {
+				failOrphans();
+				OperationCallback callbackImpl = getCallback(callback);
+				if (callbackImpl instanceof ItemCallback) {
+					itemCallbacks.get(callback).recordCompletion(
+							success ? Outcome.SUCCESS : Outcome.ERROR,
+							data != null ? data.length() : -1);
 					if (success) {
-						callbackImpl.onSuccess(new LocalStorageItem(key, oldData, data));
+						((ItemCallback) callbackImpl).onSuccess(new LocalStorageItem(key, oldData, data));
 					} else {
 						callbackImpl.onError(key);
 					}
 					itemCallbacks.remove(callback);
+					onOperationCompleted(callback);
+				} else if (callbackImpl != null) {
+					failMismatched(callback);
+				}
+			}
+		}
+
+		@Override
+		public void callLocalStorageItemUnchangedCallback(int callback, String key) {
+			synchronized (itemCallbacks) {
+				failOrphans();
+				OperationCallback callbackImpl = getCallback(callback);
+				if (callbackImpl instanceof ConditionalReadCallback) {
+					itemCallbacks.get(callback).recordCompletion(Outcome.UNCHANGED, -1);
+					((ConditionalReadCallback) callbackImpl).onUnchanged(key);
+					itemCallbacks.remove(callback);
+					onOperationCompleted(callback);
+				} else if (callbackImpl != null) {
+					failMismatched(callback);
+				}
+			}
+		}
+
+		@Override
+		public void callLocalStorageQueryCallback(int callback, boolean success,
+				List<String> keys, List<String> data) {
+			synchronized (itemCallbacks) {
+				failOrphans();
+				OperationCallback callbackImpl = getCallback(callback);
+				if (callbackImpl instanceof QueryCallback) {
+					int size = -1;
+					if (data != null) {
+						size = 0;
+						for (String d : data) {
+							size += d != null ? d.length() : 0;
+						}
+					}
+					itemCallbacks.get(callback).recordCompletion(
+							success ? Outcome.SUCCESS : Outcome.ERROR, size);
+					QueryCallback queryCallback = (QueryCallback) callbackImpl;
+					if (success) {
+						queryCallback.onResult(keys, data);
+					} else {
+						queryCallback.onError(queryCallback.getKeyPrefix());
+					}
+					itemCallbacks.remove(callback);
+					onOperationCompleted(callback);
+				} else if (callbackImpl != null) {
+					failMismatched(callback);
+				}
+			}
+		}
+
+		@Override
+		public void callLocalStorageUsageCallback(int callback, boolean success,
+				int usedBytes, int itemCount, int estimatedQuotaBytes,
+				List<Integer> prefixBytes, List<Integer> prefixItemCounts) {
+			synchronized (itemCallbacks) {
+				failOrphans();
+				OperationCallback callbackImpl = getCallback(callback);
+				if (callbackImpl instanceof UsageCallback) {
+					itemCallbacks.get(callback).recordCompletion(
+							success ? Outcome.SUCCESS : Outcome.ERROR, -1);
+					UsageCallback usageCallback = (UsageCallback) callbackImpl;
+					if (success) {
+						usageCallback.onResult(new LocalStorageUsage(usedBytes, itemCount,
+								estimatedQuotaBytes, usageCallback.getPrefixes(),
+								prefixBytes, prefixItemCounts));
+					} else {
+						usageCallback.onError(null);
+					}
+					itemCallbacks.remove(callback);
+					onOperationCompleted(callback);
+				} else if (callbackImpl != null) {
+					failMismatched(callback);
+				}
+			}
+		}
+
+		@Override
+		public void callLocalStorageSnapshotCallback(int callback, boolean success,
+				String chunk, boolean last) {
+			synchronized (itemCallbacks) {
+				failOrphans();
+				OperationCallback callbackImpl = getCallback(callback);
+				if (callbackImpl instanceof TransferCallback) {
+					TransferCallback transfer = (TransferCallback) callbackImpl;
+					boolean completed = true;
+					if (success) {
+						try {
+							completed = transfer.onStep(
+									getRpcProxy(LocalStorageClientRpc.class), callback, chunk, last);
+						} catch (IOException e) {
+							LOGGER.log(Level.WARNING, "Snapshot transfer failed", e);
+							success = false;
+						} catch (IllegalArgumentException e) {
+							LOGGER.warning("Invalid snapshot chunk: " + e.getMessage());
+							success = false;
+						}
+					}
+					if (completed || !success) {
+						itemCallbacks.get(callback).recordCompletion(
+								success ? Outcome.SUCCESS : Outcome.ERROR,
+								(int) Math.min(Integer.MAX_VALUE, transfer.getBytes()));
+						transfer.onCompleted(success);
+						itemCallbacks.remove(callback);
+						onOperationCompleted(callback);
+					}
+				} else if (callbackImpl != null) {
+					failMismatched(callback);
 				}
 			}
 		}
 
+		@Override
+		public void poll() {
+			// The response sends the next operations
+			markAsDirty();
+		}
+
 		@Override
 		public void triggerItemUpdateEvent(String key, String oldData, String data) {
 			fireItemUpdateEvent(new LocalStorageItem(key, oldData, data));
 		}
+
+		@Override
+		public void triggerItemChangedEvent(String key, boolean removed) {
+			fireEvent(new ItemUpdateEvent(getParent(), LocalStorage.this, key, removed));
+		}
 	};
 
 	/**
 	 * Main constructor.
 	 * Extends the given {@link AbstractClientConnector}.
 	 * @param clientConnector {@link AbstractClientConnector} that should get extended.
+	 * @param name Name of this instance
 	 */
-	private LocalStorage(AbstractComponent componentToExtend) {
+	private LocalStorage(AbstractComponent componentToExtend, String name) {
+		this.name = name;
+		if (name.length() > 0) {
+			getState().keyNamespace = name + NAMESPACE_SEPARATOR;
+		}
 		registerRpc(serverRpc, LocalStorageServerRpc.class);	
 		extend(componentToExtend);
 	}
@@ -113,17 +364,78 @@ public class LocalStorage extends AbstractExtension {
 	 * @return {@link LocalStorage} instance of the given parent {@link UI}.
 	 */
 	public static LocalStorage getCurrent(UI parent) {
-		if (parent == null) {
+		return getCurrent(parent, DEFAULT_NAME);
+	}
+	
+	/**
+	 * Gets or creates the named {@link LocalStorage} instance of the currently active {@link UI}.
+	 * @param name Name of the instance
+	 * @return Named {@link LocalStorage} instance of the currently active {@link UI}.
+	 */
+	public static LocalStorage getCurrent(String name) {
+		return getCurrent(UI.getCurrent(), name);
+	}
+	
+	/**
+	 * Gets or creates the named {@link LocalStorage} instance of the given
+	 * parent {@link UI}. Instances with different names are independent,
+	 * e.g. they can be configured differently.
+	 * <p>Except for the {@link #DEFAULT_NAME} every name has its own key
+	 * namespace: the item {@code key} of the instance {@code name} is stored
+	 * as {@code name:key} in the browsers localStorage, and clearing the
+	 * instance only removes the items of its namespace. The default instance
+	 * sees the items of named instances under their stored keys, like items
+	 * written by other scripts, so it shouldn't be used to access them.</p>
+	 * <p>Instances of attached {@link UI}s are looked up in constant time,
+	 * this requires the session lock.</p>
+	 * @param parent Parent {@link UI}
+	 * @param name Name of the instance. Must not contain a colon.
+	 * @return Named {@link LocalStorage} instance of the given parent {@link UI}.
+	 */
+	public static LocalStorage getCurrent(UI parent, String name) {
+		if (parent == null || name == null) {
 			throw new NullPointerException();
 		}
+		if (name.indexOf(NAMESPACE_SEPARATOR) > -1) {
+			throw new IllegalArgumentException("Name must not contain '"
+					+ NAMESPACE_SEPARATOR + "': " + name);
+		}
 		
-		for (Extension extension : parent.getExtensions()) {
-			if (extension instanceof LocalStorage) {
-				return (LocalStorage) extension;
+		VaadinSession session = parent.getSession();
+		if (session != null) {
+			LocalStorageRegistry registry = LocalStorageRegistry.get(session, false);
+			LocalStorage localStorage = registry != null ? registry.get(parent, name) : null;
+			if (localStorage != null) {
+				return localStorage;
+			}
+		} else {
+			// Not attached yet, so nothing is registered
+			for (Extension extension : parent.getExtensions()) {
+				if (extension instanceof LocalStorage
+						&& name.equals(((LocalStorage) extension).name)) {
+					return (LocalStorage) extension;
+				}
 			}
 		}
 		
-		return new LocalStorage(parent);
+		return new LocalStorage(parent, name);
+	}
+	
+	/**
+	 * @return Name of this instance
+	 * @see #getCurrent(UI, String)
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return Prefix of the keys of this instance in the browsers
+	 * localStorage. Empty for the default instance.
+	 * @see #getCurrent(UI, String)
+	 */
+	public String getKeyNamespace() {
+		return getState(false).keyNamespace;
 	}
 
 	/*
@@ -135,6 +447,22 @@ public class LocalStorage extends AbstractExtension {
 		return (LocalStorageState) super.getState();
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see com.vaadin.server.AbstractClientConnector#getState(boolean)
+	 */
+	@Override
+	protected LocalStorageState getState(boolean markAsDirty) {
+		return (LocalStorageState) super.getState(markAsDirty);
+	}
+	
+	/**
+	 * @return The {@link ServerRpc} implementation of this instance
+	 */
+	LocalStorageServerRpc getServerRpc() {
+		return serverRpc;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.vaadin.server.AbstractExtension#getParent()
 	 */
@@ -151,7 +479,45 @@ public class LocalStorage extends AbstractExtension {
 	public void getItem(String key, LocalStorageItemCallback callback) {
 		if (callback == null)
 			throw new NullPointerException("Get an item from LocalStorage doesn't make much sense when callback is null... ;-)");
-		getRpcProxy(LocalStorageClientRpc.class).getItem(key, itemCallbacks.add(callback));
+		execute(new Operation(OperationType.GET, key, -1, new ItemCallback(callback)) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.getItem(getKey(), callbackId, null);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Gets the items data from the {@link Storage} on the client-side
+	 * unless it still equals the given data.
+	 * <p>Only a hash of <code>knownData</code> is sent to the client-side.
+	 * If the stored data has the same hash the client-side answers without
+	 * sending the data and the callback receives <code>knownData</code>.</p>
+	 * @param key Items key
+	 * @param knownData The items data already known by the server-side.
+	 * If null the data is always sent.
+	 * @param callback A callback
+	 * @see LocalStorageHash
+	 */
+	public void getItem(String key, String knownData, LocalStorageItemCallback callback) {
+		if (callback == null)
+			throw new NullPointerException("Get an item from LocalStorage doesn't make much sense when callback is null... ;-)");
+		if (knownData == null) {
+			getItem(key, callback);
+			return;
+		}
+		final String hash = LocalStorageHash.hash(knownData);
+		execute(new Operation(OperationType.GET_CONDITIONAL, key, -1,
+				new ConditionalReadCallback(knownData, callback)) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.getItem(getKey(), callbackId, hash);
+			}
+			
+		});
 	}
 	
 	/**
@@ -163,7 +529,37 @@ public class LocalStorage extends AbstractExtension {
 	 * @param callback A callback
 	 */
 	public void setItem(String key, String data, LocalStorageItemCallback callback) {
-		getRpcProxy(LocalStorageClientRpc.class).setItem(key, data, itemCallbacks.add(callback));
+		setItem(key, data, callback, fetchOldData);
+	}
+	
+	/**
+	 * Sets the items data in the {@link Storage} on the
+	 * client-side and calls the given callback.
+	 * <p>The new data is never sent back by the client-side. The old data
+	 * only gets read and sent when <code>fetchOldData</code> is
+	 * <code>true</code>, otherwise {@link LocalStorageItem#getOldData()}
+	 * is <code>null</code>.</p>
+	 * @param key Items key
+	 * @param data Items new data.
+	 * If null the item will get removed
+	 * @param callback A callback
+	 * @param fetchOldData Read the old data before it gets overwritten
+	 */
+	public void setItem(String key, final String data, LocalStorageItemCallback callback,
+			boolean fetchOldData) {
+		// Decided before the sync wraps the callback, it never needs the old data
+		final boolean fetch = fetchOldData && callback != null;
+		execute(new Operation(data != null ? OperationType.SET : OperationType.REMOVE, key,
+				data != null ? data.length() : -1,
+				syncing(callback != null ? new WriteCallback(data, callback) : null,
+						Collections.singletonMap(key, data))) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.setItem(getKey(), data, callbackId, fetch);
+			}
+			
+		});
 	}
 	
 	/**
@@ -176,6 +572,156 @@ public class LocalStorage extends AbstractExtension {
 		setItem(key, data, null);
 	}
 	
+	/**
+	 * Sets the data of several items in the {@link Storage} on the
+	 * client-side in one transfer and calls the given callback once.
+	 * @param items Items new data by key.
+	 * If an items data is null the item will get removed
+	 * @param callback A callback
+	 */
+	public void setItems(Map<String, String> items, LocalStorageItemCallback callback) {
+		writeItems(items, callback, true);
+	}
+	
+	/**
+	 * Sets the data of several items in the {@link Storage} on the
+	 * client-side in one transfer
+	 * @param items Items new data by key.
+	 * If an items data is null the item will get removed
+	 */
+	public void setItems(Map<String, String> items) {
+		setItems(items, null);
+	}
+	
+	/**
+	 * Sets the data of several items
+	 * @param items Items new data by key
+	 * @param callback A callback
+	 * @param record Report the changes to the {@link #sync}
+	 */
+	void writeItems(Map<String, String> items, LocalStorageItemCallback callback,
+			boolean record) {
+		final List<String> keys = new ArrayList<String>(items.size());
+		final List<String> data = new ArrayList<String>(items.size());
+		int size = 0;
+		for (Map.Entry<String, String> item : items.entrySet()) {
+			keys.add(item.getKey());
+			data.add(item.getValue());
+			size += item.getValue() != null ? item.getValue().length() : 0;
+		}
+		ItemCallback itemCallback = ItemCallback.wrap(callback);
+		if (record) {
+			itemCallback = syncing(itemCallback, new LinkedHashMap<String, String>(items));
+		}
+		execute(new Operation(OperationType.SET_ALL, null, size, itemCallback) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.setItems(keys, data, callbackId);
+			}
+			
+			@Override
+			public Collection<String> getKeys() {
+				return keys;
+			}
+			
+		});
+	}
+	
+	/**
+	 * Gets the items binary data from the {@link Storage} on the client-side.
+	 * @param key Items key
+	 * @param callback A callback
+	 * @see LocalStorageBinaryCodec
+	 */
+	@SuppressWarnings("serial")
+	public void getBytes(String key, final LocalStorageBytesCallback callback) {
+		if (callback == null)
+			throw new NullPointerException("Get an item from LocalStorage doesn't make much sense when callback is null... ;-)");
+		getItem(key, new LocalStorageItemCallback() {
+			
+			@Override
+			public void onSuccess(LocalStorageItem item) {
+				String data = item.getData();
+				ByteBuffer bytes = null;
+				if (data != null) {
+					try {
+						bytes = ByteBuffer.wrap(LocalStorageBinaryCodec.decode(data));
+					} catch (IllegalArgumentException e) {
+						LOGGER.warning("Item \"" + item.getKey() + "\" doesn't contain binary data");
+						callback.onError(item.getKey());
+						return;
+					}
+				}
+				callback.onSuccess(item.getKey(), bytes);
+			}
+			
+			@Override
+			public void onError(String key) {
+				callback.onError(key);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Sets the items binary data in the {@link Storage} on the
+	 * client-side and calls the given callback.
+	 * @param key Items key
+	 * @param data Items new binary data.
+	 * If null the item will get removed
+	 * @param callback A callback
+	 * @see LocalStorageBinaryCodec
+	 */
+	public void setBytes(String key, byte[] data, LocalStorageItemCallback callback) {
+		setItem(key, data != null ? LocalStorageBinaryCodec.encode(data) : null, callback);
+	}
+	
+	/**
+	 * Sets the items binary data in the {@link Storage} on the client-side
+	 * @param key Items key
+	 * @param data Items new binary data.
+	 * If null the item will get removed
+	 */
+	public void setBytes(String key, byte[] data) {
+		setBytes(key, data, null);
+	}
+	
+	/**
+	 * Sets the items binary data in the {@link Storage} on the
+	 * client-side and calls the given callback. The remaining bytes of
+	 * the buffer are written, its position is not changed.
+	 * @param key Items key
+	 * @param data Items new binary data.
+	 * If null the item will get removed
+	 * @param callback A callback
+	 * @see LocalStorageBinaryCodec
+	 */
+	public void setBytes(String key, ByteBuffer data, LocalStorageItemCallback callback) {
+		String encoded = null;
+		if (data != null && data.hasArray()) {
+			encoded = LocalStorageBinaryCodec.encode(data.array(),
+					data.arrayOffset() + data.position(), data.remaining());
+		} else if (data != null) {
+			byte[] bytes = new byte[data.remaining()];
+			data.duplicate().get(bytes);
+			encoded = LocalStorageBinaryCodec.encode(bytes);
+		}
+		setItem(key, encoded, callback);
+	}
+	
+	/**
+	 * Sets the items binary data in the {@link Storage} on the client-side.
+	 * The remaining bytes of the buffer are written, its position is not
+	 * changed.
+	 * @param key Items key
+	 * @param data Items new binary data.
+	 * If null the item will get removed
+	 */
+	public void setBytes(String key, ByteBuffer data) {
+		setBytes(key, data, null);
+	}
+	
 	/**
 	 * Removes the item from the {@link Storage} on the client-side 
 	 * and calls the given callback.
@@ -200,7 +746,15 @@ public class LocalStorage extends AbstractExtension {
 	 * @param callback A callback
 	 */
 	public void clear(LocalStorageItemCallback callback) {
-		getRpcProxy(LocalStorageClientRpc.class).clear(itemCallbacks.add(callback));
+		execute(new Operation(OperationType.CLEAR, null, -1,
+				syncing(ItemCallback.wrap(callback), null)) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.clear(callbackId);
+			}
+			
+		});
 	}
 	
 	/**
@@ -210,6 +764,190 @@ public class LocalStorage extends AbstractExtension {
 		clear(null);
 	}
 	
+	/**
+	 * Queries the JSON data of the items on the client-side. The query gets
+	 * evaluated by the browser and only the matching items are sent back.
+	 * @param query The query
+	 * @param callback A callback
+	 * @see LocalStorageQuery
+	 */
+	public void query(final LocalStorageQuery query, LocalStorageQueryCallback callback) {
+		if (query == null || callback == null)
+			throw new NullPointerException();
+		execute(new Operation(OperationType.QUERY, query.keyPrefix, -1,
+				new QueryCallback(query.keyPrefix, callback)) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.query(query, callbackId);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Gets the usage of the localStorage on the client-side. The client-side
+	 * scans the storage once and keeps the usage up to date on every write,
+	 * so later requests are cheap. The same applies to each prefix after it
+	 * has been requested once.
+	 * <p>The totals and the remaining quota are those of the whole origin,
+	 * the items of other named instances included. The prefixes are within
+	 * the key namespace of this instance.</p>
+	 * @param callback A callback
+	 * @param prefixes Key prefixes whose usage should be reported separately
+	 * @see LocalStorageUsage
+	 */
+	public void getUsage(LocalStorageUsageCallback callback, String... prefixes) {
+		if (callback == null)
+			throw new NullPointerException();
+		final List<String> prefixList = Arrays.asList(prefixes);
+		execute(new Operation(OperationType.USAGE, null, -1,
+				new UsageCallback(prefixList, callback)) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.getUsage(prefixList, callbackId);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Takes a snapshot of all items on the client-side. The client-side
+	 * compresses the items into one stream that is sent in chunks, every
+	 * chunk gets written to the output stream when it arrives. The output
+	 * stream is flushed but not closed.
+	 * @param out Receives the snapshot
+	 * @param callback A callback
+	 * @see #restore(InputStream, LocalStorageSnapshotCallback)
+	 * @see LocalStorageSnapshotCodec
+	 */
+	public void snapshot(OutputStream out, LocalStorageSnapshotCallback callback) {
+		snapshot("", out, callback);
+	}
+	
+	/**
+	 * Takes a snapshot of the items whose key starts with the given prefix
+	 * on the client-side. The client-side compresses the items into one
+	 * stream that is sent in chunks, every chunk gets written to the output
+	 * stream when it arrives. The output stream is flushed but not closed.
+	 * <p>The server-side holds one chunk at a time and asks for the next
+	 * one after writing it. The client-side encodes the whole snapshot up
+	 * front, so it holds the compressed items in memory until the transfer
+	 * is complete.</p>
+	 * @param keyPrefix Key prefix of the items
+	 * @param out Receives the snapshot
+	 * @param callback A callback
+	 * @see #restore(InputStream, LocalStorageSnapshotCallback)
+	 * @see LocalStorageSnapshotCodec
+	 */
+	public void snapshot(final String keyPrefix, OutputStream out,
+			LocalStorageSnapshotCallback callback) {
+		if (keyPrefix == null || out == null || callback == null)
+			throw new NullPointerException();
+		execute(new Operation(OperationType.SNAPSHOT, keyPrefix, -1,
+				new SnapshotCallback(out, callback)) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.snapshot(keyPrefix, SNAPSHOT_CHUNK_LENGTH, callbackId);
+			}
+			
+		});
+	}
+	
+	/**
+	 * Restores a snapshot taken by
+	 * {@link #snapshot(String, OutputStream, LocalStorageSnapshotCallback)}.
+	 * The input stream is read in chunks, each one is sent after the
+	 * client-side received the previous one. The client-side writes all
+	 * items at once after the last chunk and removes the items of the
+	 * snapshots key prefix that are not part of the snapshot. The input
+	 * stream is not closed.
+	 * <p>The server-side holds one chunk at a time. The client-side keeps
+	 * every received chunk until the last one arrives and then decodes the
+	 * whole snapshot in memory.</p>
+	 * <p>Restored items are not reported to the {@link LocalStorageSync}.</p>
+	 * @param in The snapshot
+	 * @param callback A callback
+	 */
+	public void restore(InputStream in, LocalStorageSnapshotCallback callback) {
+		if (in == null || callback == null)
+			throw new NullPointerException();
+		final RestoreCallback restore = new RestoreCallback(in, callback);
+		final String chunk;
+		try {
+			chunk = restore.readChunk();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Can't read the snapshot", e);
+			callback.onError();
+			return;
+		}
+		execute(new Operation(OperationType.RESTORE, null, -1, restore) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.restoreSnapshot(callbackId, chunk, restore.isEndOfStream());
+			}
+			
+		});
+	}
+	
+	/**
+	 * @return Mirrors the written items into a store or null
+	 */
+	public LocalStorageSync getSync() {
+		return sync;
+	}
+	
+	/**
+	 * Enables the synchronization of the items written through this
+	 * instance. The pending changes of a replaced synchronization get
+	 * written.
+	 * <p>A change gets synchronized after the client-side reported it as
+	 * stored, so writes of synchronized items always get answered. They
+	 * count for the limiters like writes with a callback.</p>
+	 * @param sync Mirrors the written items into a store or null to
+	 * disable the synchronization
+	 * @throws IllegalStateException if the synchronization is used by
+	 * another instance
+	 * @see LocalStorageSync
+	 */
+	public void setSync(LocalStorageSync sync) {
+		if (sync != null) {
+			sync.bind(this);
+		}
+		if (this.sync != null && this.sync != sync) {
+			this.sync.flush();
+			this.sync.bind(null);
+		}
+		this.sync = sync;
+	}
+	
+	/**
+	 * Makes a write report its changes to the {@link #sync} once the
+	 * client-side has stored them. Rejected or failed writes are never
+	 * synchronized.
+	 * @param callback Callback of the write or null
+	 * @param changes Written data by key or null if all items get removed
+	 * @return The callback of the write
+	 */
+	private ItemCallback syncing(ItemCallback callback, Map<String, String> changes) {
+		if (sync == null) {
+			return callback;
+		}
+		if (changes != null) {
+			boolean synchronizedKey = false;
+			for (String key : changes.keySet()) {
+				synchronizedKey |= key.startsWith(sync.getKeyPrefix());
+			}
+			if (!synchronizedKey) {
+				return callback;
+			}
+		}
+		return new SyncCallback(callback, changes);
+	}
+	
 	/**
 	 * @return SimulateNotSupported is enabled.
 	 * <p><u>When SimulateNotSupported is enabled the client-side acts
@@ -236,74 +974,1516 @@ public class LocalStorage extends AbstractExtension {
 	}
 	
 	/**
-	 * Fires an item update event
+	 * @return The old data of an item gets read before it gets overwritten
+	 * @see #setFetchOldData(boolean)
+	 */
+	public boolean isFetchOldData() {
+		return fetchOldData;
+	}
+	
+	/**
+	 * @param fetchOldData The old data of an item gets read before it
+	 * gets overwritten and is passed to the callback. Disable this to save
+	 * a storage read and the transfer of the old data for every write.
+	 * Only affects writes with a callback.
+	 */
+	public void setFetchOldData(boolean fetchOldData) {
+		this.fetchOldData = fetchOldData;
+	}
+	
+	/**
+	 * @return Maximum number of items the client-side keeps in its read
+	 * cache
+	 * @see #setReadCacheSize(int)
+	 */
+	public int getReadCacheSize() {
+		return getState(false).readCacheSize;
+	}
+	
+	/**
+	 * The client-side keeps recently read and written items in memory, so
+	 * repeated reads and old data lookups don't have to access the
+	 * browsers {@link Storage}. The cache follows changes made by other
+	 * browser windows.
+	 * @param readCacheSize Maximum number of items the client-side keeps
+	 * in its read cache. 0 disables the cache.
+	 */
+	public void setReadCacheSize(int readCacheSize) {
+		if (readCacheSize < 0) {
+			throw new IllegalArgumentException("readCacheSize must not be negative");
+		}
+		if (getState(false).readCacheSize != readCacheSize) {
+			getState().readCacheSize = readCacheSize;
+		}
+	}
+	
+	/**
+	 * @return Writes are deferred on the client-side
+	 * @see #setDeferWrites(boolean)
+	 */
+	public boolean isDeferWrites() {
+		return getState(false).deferWrites;
+	}
+	
+	/**
+	 * When enabled the client-side doesn't write to the {@link Storage}
+	 * while it processes a response. Writes are queued, merged per key and
+	 * flushed in small time slices when the browser is idle. Reads of keys
+	 * with a pending write return the pending data. Callbacks of writes
+	 * get called after the flush.
+	 * @param deferWrites Defer writes on the client-side
+	 */
+	public void setDeferWrites(boolean deferWrites) {
+		if (getState(false).deferWrites != deferWrites) {
+			getState().deferWrites = deferWrites;
+		}
+	}
+	
+	/**
+	 * @return Maximum delay of item update events in milliseconds
+	 * @see #setItemUpdateEventDelay(int)
+	 */
+	public int getItemUpdateEventDelay() {
+		return getState(false).itemUpdateEventDelay;
+	}
+	
+	/**
+	 * By default every change made by another browser window is sent to the
+	 * server-side in a request of its own. With a delay the client-side
+	 * holds the {@link ItemUpdateEvent}s back and sends them along with the
+	 * next request, but not later than the given delay. Only the latest
+	 * event of each key is sent.
+	 * @param delayMillis Maximum delay in milliseconds. 0 sends the events
+	 * immediately.
+	 */
+	public void setItemUpdateEventDelay(int delayMillis) {
+		if (delayMillis < 0) {
+			throw new IllegalArgumentException("delayMillis must not be negative");
+		}
+		if (getState(false).itemUpdateEventDelay != delayMillis) {
+			getState().itemUpdateEventDelay = delayMillis;
+		}
+	}
+	
+	/**
+	 * @return Item update events don't contain the data of the item
+	 * @see #setLazyItemUpdateEvents(boolean)
+	 */
+	public boolean isLazyItemUpdateEvents() {
+		return getState(false).lazyItemUpdateEvents;
+	}
+	
+	/**
+	 * When enabled only the key and the type of a change are sent to the
+	 * server-side. The old and new data are only transferred if a listener
+	 * calls {@link ItemUpdateEvent#fetchItem(LocalStorageItemCallback)}.
+	 * <p>The client-side remembers the old data of the latest 100 changed
+	 * keys. Fetching an item whose old data has been dropped since, because
+	 * more keys changed before the fetch, fails with
+	 * {@link LocalStorageItemCallback#onError(String)}.</p>
+	 * @param lazyItemUpdateEvents Item update events don't contain the data
+	 * of the item
+	 */
+	public void setLazyItemUpdateEvents(boolean lazyItemUpdateEvents) {
+		if (getState(false).lazyItemUpdateEvents != lazyItemUpdateEvents) {
+			getState().lazyItemUpdateEvents = lazyItemUpdateEvents;
+		}
+	}
+	
+	/**
+	 * Gets the old data remembered by the client-side and the current data
+	 * of an item whose change has been reported without its data
+	 * @param key Items key
+	 * @param callback A callback
+	 */
+	void fetchChangedItem(String key, LocalStorageItemCallback callback) {
+		execute(new Operation(OperationType.GET, key, -1, new ItemCallback(callback)) {
+			
+			@Override
+			void send(LocalStorageClientRpc rpc, int callbackId) {
+				rpc.getChangedItem(getKey(), callbackId);
+			}
+			
+		});
+	}
+	
+	/**
+	 * @return Limiter of this instance or null if unlimited
+	 */
+	public LocalStorageLimiter getLimiter() {
+		return limiter;
+	}
+	
+	/**
+	 * Limits the number of operations with a callback this instance has in
+	 * flight. Takes effect for new operations.
+	 * @param limiter Limiter of this instance or null if unlimited
+	 */
+	public void setLimiter(LocalStorageLimiter limiter) {
+		synchronized (itemCallbacks) {
+			this.limiter = limiter;
+			drainBacklog();
+		}
+	}
+	
+	/**
+	 * @return Limiter shared by all instances of the current
+	 * {@link VaadinService} or null if unlimited or if there is no current
+	 * service
+	 * @see #getApplicationLimiter(VaadinService)
+	 */
+	public static LocalStorageLimiter getApplicationLimiter() {
+		VaadinService service = VaadinService.getCurrent();
+		return service != null ? getApplicationLimiter(service) : null;
+	}
+	
+	/**
+	 * @param service The service
+	 * @return Limiter shared by all instances of the service or null if
+	 * unlimited
+	 */
+	public static LocalStorageLimiter getApplicationLimiter(VaadinService service) {
+		synchronized (applicationLimiters) {
+			return applicationLimiters.get(service);
+		}
+	}
+	
+	/**
+	 * Sets the limiter of the current {@link VaadinService}
+	 * @param applicationLimiter Limiter shared by all instances of the
+	 * current service or null if unlimited
+	 * @throws IllegalStateException if there is no current service
+	 * @see #setApplicationLimiter(VaadinService, LocalStorageLimiter)
+	 */
+	public static void setApplicationLimiter(LocalStorageLimiter applicationLimiter) {
+		VaadinService service = VaadinService.getCurrent();
+		if (service == null) {
+			throw new IllegalStateException("There is no current VaadinService");
+		}
+		setApplicationLimiter(service, applicationLimiter);
+	}
+	
+	/**
+	 * Limits the number of operations with a callback all instances of a
+	 * {@link VaadinService} have in flight together. Takes effect for new
+	 * operations.
+	 * <p>The limiter gets registered as an MBean named after the service,
+	 * see {@link LocalStorageLimiter#registerMBean(String)}. It is
+	 * unregistered when it gets replaced or the service is destroyed.</p>
+	 * @param service The service
+	 * @param applicationLimiter Limiter shared by all instances of the
+	 * service or null if unlimited.
+	 * {@link LocalStorageLimiter.Policy#QUEUE} is not supported.
+	 */
+	public static void setApplicationLimiter(final VaadinService service,
+			LocalStorageLimiter applicationLimiter) {
+		if (applicationLimiter != null
+				&& applicationLimiter.getPolicy() == LocalStorageLimiter.Policy.QUEUE) {
+			throw new IllegalArgumentException("The application limiter can't queue operations");
+		}
+		LocalStorageLimiter old;
+		synchronized (applicationLimiters) {
+			boolean known = applicationLimiters.containsKey(service);
+			if (applicationLimiter != null) {
+				old = applicationLimiters.put(service, applicationLimiter);
+			} else {
+				old = applicationLimiters.remove(service);
+			}
+			if (!known && applicationLimiter != null) {
+				service.addServiceDestroyListener(new ServiceDestroyListener() {
+					
+					@Override
+					public void serviceDestroy(ServiceDestroyEvent event) {
+						LocalStorageLimiter limiter;
+						synchronized (applicationLimiters) {
+							limiter = applicationLimiters.remove(service);
+						}
+						if (limiter != null) {
+							limiter.unregisterMBean();
+						}
+					}
+				});
+			}
+		}
+		if (old != null && old != applicationLimiter) {
+			old.unregisterMBean();
+		}
+		if (applicationLimiter != null && old != applicationLimiter) {
+			try {
+				applicationLimiter.registerMBean(service.getServiceName());
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Can't register the application limiter of "
+						+ service.getServiceName() + " as MBean", e);
+			}
+		}
+	}
+	
+	/**
+	 * @return Limiter of the service this instance belongs to or null
+	 */
+	private LocalStorageLimiter getServiceLimiter() {
+		UI ui = getUI();
+		VaadinSession session = ui != null ? ui.getSession() : null;
+		VaadinService service = session != null ? session.getService() : null;
+		if (service == null) {
+			service = VaadinService.getCurrent();
+		}
+		return service != null ? getApplicationLimiter(service) : null;
+	}
+	
+	/**
+	 * @return Recorder of the operations of this instance or null
+	 */
+	public LocalStorageFlightRecorder getFlightRecorder() {
+		return flightRecorder;
+	}
+	
+	/**
+	 * Records every operation of this instance: its type, key hash, value
+	 * size, send and response time and outcome. A recorder may be shared
+	 * by several instances. It is not kept when the session gets
+	 * serialized.
+	 * @param flightRecorder Recorder of the operations of this instance or
+	 * null to disable recording
+	 */
+	public void setFlightRecorder(LocalStorageFlightRecorder flightRecorder) {
+		this.flightRecorder = flightRecorder;
+	}
+	
+	/**
+	 * @return Maximum number of {@link LocalStoragePriority#BACKGROUND}
+	 * operations sent per response
+	 */
+	public int getBackgroundBudget() {
+		return backgroundBudget;
+	}
+	
+	/**
+	 * Limits the number of {@link LocalStoragePriority#BACKGROUND}
+	 * operations sent per response. The remaining ones get sent with the
+	 * next round trips, so bulk work doesn't delay interactive operations.
+	 * @param backgroundBudget Maximum number of background operations sent
+	 * per response, at least 1
+	 */
+	public void setBackgroundBudget(int backgroundBudget) {
+		if (backgroundBudget < 1) {
+			throw new IllegalArgumentException("backgroundBudget must be at least 1");
+		}
+		this.backgroundBudget = backgroundBudget;
+	}
+	
+	/**
+	 * Runs the given operations with the given priority instead of the
+	 * default priority of their type. Applies to the operations of all
+	 * instances started by the current thread while the runnable runs.
+	 * @param priority The priority
+	 * @param operations Starts the operations
+	 */
+	public static void runWithPriority(LocalStoragePriority priority, Runnable operations) {
+		if (priority == null) {
+			throw new NullPointerException("priority");
+		}
+		LocalStoragePriority previous = currentPriority.get();
+		currentPriority.set(priority);
+		try {
+			operations.run();
+		} finally {
+			if (previous != null) {
+				currentPriority.set(previous);
+			} else {
+				currentPriority.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Schedules the operation if it gets admitted by the limiters
+	 * @param operation The operation
+	 */
+	private void execute(Operation operation) {
+		LocalStoragePriority priority = currentPriority.get();
+		operation.priority = priority != null ? priority : operation.getDefaultPriority();
+		LocalStorageLimiter local = null;
+		LocalStorageLimiter application = null;
+		if (operation.getCallback() != null) {
+			// Acquire outside of the lock, blocking must not stop callbacks
+			local = limiter;
+			application = getServiceLimiter();
+			if (local != null && !local.tryAcquire()) {
+				if (local.getPolicy() == LocalStorageLimiter.Policy.QUEUE) {
+					synchronized (itemCallbacks) {
+						enqueue(operation);
+					}
+					return;
+				}
+				if (local.getPolicy() != LocalStorageLimiter.Policy.BLOCK || !block(local)) {
+					reject(local, operation);
+					return;
+				}
+			}
+			if (application != null && !application.tryAcquire()
+					&& (application.getPolicy() != LocalStorageLimiter.Policy.BLOCK || !block(application))) {
+				if (local != null) {
+					local.release();
+				}
+				reject(application, operation);
+				return;
+			}
+		}
+		synchronized (itemCallbacks) {
+			failOrphans();
+			if (!backlog.isEmpty()) {
+				// Keep the order of the operations
+				release(new LocalStorageLimiter[] { local, application });
+				enqueue(operation);
+				drainBacklog();
+				return;
+			}
+			send(operation, local, application);
+		}
+	}
+	
+	/**
+	 * Puts the operation into the {@link #backlog} or rejects it if the
+	 * backlog is full
+	 * @param operation The operation
+	 */
+	private void enqueue(Operation operation) {
+		if (operation.getCallback() == null || limiter == null || limiter.offerBacklog()) {
+			backlog.add(operation);
+		} else {
+			reject(limiter, operation);
+		}
+	}
+	
+	/**
+	 * Blocks until the limiter admits an operation or the timeout elapses
+	 * @param limiter The limiter
+	 * @return The operation has been admitted
+	 */
+	private boolean block(LocalStorageLimiter limiter) {
+		try {
+			return limiter.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Rejects the operation
+	 * @param limiter The limiter that rejected the operation
+	 * @param operation The operation
+	 */
+	private void reject(LocalStorageLimiter limiter, Operation operation) {
+		limiter.reject();
+		LocalStorageFlightRecorder recorder = flightRecorder;
+		if (recorder != null) {
+			recorder.begin(operation.getType(), operation.getKey(), operation.getValueSize(), Outcome.REJECTED);
+		}
+		LOGGER.fine("Rejected operation on \"" + operation.getKey() + "\": " + limiter);
+		operation.getCallback().onError(operation.getKey());
+	}
+	
+	/**
+	 * Schedules the operation to be sent with the next response. Queued
+	 * operations of a lower priority that have to be sent before the
+	 * operation, e.g. a write of the same item, get its priority.
+	 * @param operation The operation
+	 * @param local Instance limiter that admitted the operation or null
+	 * @param application Application limiter that admitted the operation or null
+	 */
+	private void send(Operation operation, LocalStorageLimiter local, LocalStorageLimiter application) {
+		if (local != null || application != null) {
+			operation.admission = new LocalStorageLimiter[] { local, application };
+		}
+		// Measured from here, the time in the lane adds to the latency
+		LocalStorageFlightRecorder recorder = flightRecorder;
+		if (recorder != null) {
+			operation.recordSend(recorder, operation.getCallback() != null);
+		}
+		scheduler.schedule(operation, operation.priority);
+		markAsDirty();
+	}
+	
+	/**
+	 * Sends the scheduled operations to the client-side, the ones with a
+	 * higher priority first. Sends at most {@link #backgroundBudget}
+	 * background operations and asks the client-side for another round
+	 * trip if some remain.
+	 */
+	private void sendScheduled() {
+		LocalStorageClientRpc rpc = getRpcProxy(LocalStorageClientRpc.class);
+		for (Operation operation : scheduler.poll(backgroundBudget)) {
+			int callbackId = itemCallbacks.add(operation);
+			if (operation.admission != null) {
+				admissions.put(callbackId, operation.admission);
+				operation.admission = null;
+			}
+			operation.send(rpc, callbackId);
+		}
+		if (scheduler.hasScheduled(LocalStoragePriority.BACKGROUND)) {
+			rpc.poll();
+		}
+	}
+	
+	/**
+	 * Releases the limiters of a completed operation and sends operations
+	 * from the {@link #backlog}
+	 * @param callbackId Callback id of the completed operation
+	 */
+	private void onOperationCompleted(int callbackId) {
+		release(admissions.remove(callbackId));
+		drainBacklog();
+	}
+	
+	/**
+	 * Releases the given limiters
+	 * @param limiters The limiters, may be null
+	 */
+	private void release(LocalStorageLimiter[] limiters) {
+		if (limiters != null) {
+			for (LocalStorageLimiter l : limiters) {
+				if (l != null) {
+					l.release();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sends operations from the {@link #backlog} as long as the limiters
+	 * admit them
+	 */
+	private void drainBacklog() {
+		while (!backlog.isEmpty()) {
+			Operation operation = backlog.getFirst();
+			if (operation.getCallback() == null) {
+				backlog.removeFirst();
+				send(operation, null, null);
+				continue;
+			}
+			LocalStorageLimiter local = limiter;
+			LocalStorageLimiter application = getServiceLimiter();
+			if (local != null && !local.tryAcquire()) {
+				return;
+			}
+			backlog.removeFirst();
+			if (local != null) {
+				local.pollBacklog();
+			}
+			if (application != null && !application.tryAcquire()) {
+				if (local != null) {
+					local.release();
+				}
+				reject(application, operation);
+				continue;
+			}
+			send(operation, local, application);
+		}
+	}
+	
+	/**
+	 * Gets the callback of an operation in flight
+	 * @param callbackId Callback id
+	 * @return The callback or null
+	 */
+	private OperationCallback getCallback(int callbackId) {
+		Operation operation = itemCallbacks.get(callbackId);
+		return operation != null ? operation.getCallback() : null;
+	}
+	
+	/**
+	 * Fails an operation in flight that got an answer meant for another
+	 * type of operation
+	 * @param callbackId Callback id
+	 */
+	private void failMismatched(int callbackId) {
+		Operation operation = itemCallbacks.remove(callbackId);
+		LOGGER.warning("Unexpected answer for operation " + operation.getType()
+				+ " on \"" + operation.getKey() + "\"");
+		operation.recordCompletion(Outcome.ERROR, -1);
+		operation.getCallback().onError(operation.getKey());
+		onOperationCompleted(callbackId);
+	}
+	
+	/**
+	 * Calls the <code>onError</code> method of the callbacks of all
+	 * operations that were pending when this instance got serialized
+	 */
+	private void failOrphans() {
+		if (orphans != null) {
+			List<Orphan> failed = orphans;
+			orphans = null;
+			for (Orphan orphan : failed) {
+				orphan.fail();
+			}
+		}
+	}
+	
+	/**
+	 * Writes this instance in a compact form. Operations in flight or in the
+	 * backlog can't be completed after deserialization, so instead of the
+	 * operations and their bookkeeping only the key and callback of each
+	 * one are written. All public callback interfaces are
+	 * {@link Serializable}, like Vaadin listeners.
+	 * @param out The stream
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		synchronized (itemCallbacks) {
+			List<Operation> pending = new ArrayList<Operation>(itemCallbacks.values());
+			pending.addAll(scheduler.getScheduled());
+			pending.addAll(backlog);
+			List<Orphan> written = new ArrayList<Orphan>(pending.size());
+			int dropped = 0;
+			for (Operation operation : pending) {
+				if (operation.getCallback() == null) {
+					continue;
+				}
+				// Only onError will be called, the wrappers aren't needed
+				Object callback = operation.getCallback().getCallerCallback();
+				if (callback instanceof Serializable) {
+					written.add(new Orphan(operation.getKey(), (Serializable) callback));
+				} else if (callback != null) {
+					dropped++;
+				}
+			}
+			if (orphans != null) {
+				written.addAll(orphans);
+			}
+			if (dropped > 0) {
+				LOGGER.warning(dropped + " pending callbacks are not serializable"
+						+ " and won't be notified after deserialization");
+			}
+			out.writeInt(itemCallbacks.getCurrentKey());
+			out.writeInt(written.size());
+			for (Orphan orphan : written) {
+				out.writeObject(orphan.getKey());
+				out.writeObject(orphan.getCallback());
+			}
+		}
+	}
+	
+	/**
+	 * Reads an instance written by {@link #writeObject(ObjectOutputStream)}
+	 * @param in The stream
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// Keep counting, late answers must not match new callbacks
+		itemCallbacks = new LocalStorageItemCallbacks(in.readInt());
+		backlog = new LinkedList<Operation>();
+		admissions = new HashMap<Integer, LocalStorageLimiter[]>();
+		scheduler = new LocalStorageScheduler<Operation>();
+		int count = in.readInt();
+		if (count > 0) {
+			orphans = new ArrayList<Orphan>(count);
+			for (int i = 0; i < count; i++) {
+				String key = (String) in.readObject();
+				Serializable callback = (Serializable) in.readObject();
+				orphans.add(new Orphan(key, callback));
+			}
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.vaadin.server.AbstractClientConnector#beforeClientResponse(boolean)
+	 */
+	@Override
+	public void beforeClientResponse(boolean initial) {
+		super.beforeClientResponse(initial);
+		if (sync != null) {
+			sync.flush();
+		}
+		synchronized (itemCallbacks) {
+			sendScheduled();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.vaadin.server.AbstractClientConnector#attach()
+	 */
+	@Override
+	public void attach() {
+		super.attach();
+		LocalStorageRegistry.get(getSession(), true).register(getUI(), this);
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.vaadin.server.AbstractClientConnector#detach()
+	 */
+	@Override
+	public void detach() {
+		if (sync != null) {
+			sync.flush();
+		}
+		VaadinSession session = getSession();
+		LocalStorageRegistry registry = LocalStorageRegistry.get(session, false);
+		if (registry != null) {
+			registry.unregister(getUI(), this);
+			if (registry.isEmpty()) {
+				session.setAttribute(LocalStorageRegistry.class, null);
+			}
+		}
+		super.detach();
+		// Operations in flight will never be answered
+		synchronized (itemCallbacks) {
+			for (LocalStorageLimiter[] limiters : admissions.values()) {
+				release(limiters);
+			}
+			admissions.clear();
+			for (Operation operation : scheduler.getScheduled()) {
+				release(operation.admission);
+			}
+			scheduler.clear();
+			if (limiter != null) {
+				for (Operation operation : backlog) {
+					if (operation.getCallback() != null) {
+						limiter.pollBacklog();
+					}
+				}
+			}
+			backlog.clear();
+		}
+	}
+	
+	/**
+	 * Fires an item update event
 	 * @param item Updated {@link LocalStorageItem}
 	 */
-	private void fireItemUpdateEvent(LocalStorageItem item) {
-		fireEvent(new ItemUpdateEvent(getParent(), this, item));
+	private void fireItemUpdateEvent(LocalStorageItem item) {
+		fireEvent(new ItemUpdateEvent(getParent(), this, item));
+	}
+	
+	/**
+	 * Adds a listener for the {@link ItemUpdateEvent}
+	 * @param listener Listener for the {@link ItemUpdateEvent}
+	 * @see ItemUpdateEvent
+	 */
+	public void addItemUpdateListener(ItemUpdateListener listener) {
+		addListener(ItemUpdateEvent.ITEM_UPDATE_EVENT_IDENTIFIER, ItemUpdateEvent.class,
+				listener, ItemUpdateListener.onUpdateMethod);
+	}
+	
+	/**
+	 * Removes a listener for the {@link ItemUpdateEvent}
+	 * @param listener Listener for the {@link ItemUpdateEvent}
+	 */
+	public void removeItemUpdateListener(ItemUpdateListener listener) {
+		removeListener(ItemUpdateEvent.ITEM_UPDATE_EVENT_IDENTIFIER, ItemUpdateEvent.class,
+				listener);
+	}
+	
+	/**
+	 * Contains all callbacks of a {@link LocalStorage} instance
+	 * @author Max Schuster
+	 */
+	private class LocalStorageItemCallbacks extends HashMap<Integer, Operation> {
+		
+		/**
+		 * Current key counter
+		 */
+		private int currentKey = 0;
+		
+		/**
+		 * @param currentKey Current key counter
+		 */
+		public LocalStorageItemCallbacks(int currentKey) {
+			this.currentKey = currentKey;
+		}
+		
+		public LocalStorageItemCallbacks() {
+			this(0);
+		}
+		
+		/**
+		 * Adds the operation and returns a callback id or
+		 * -1 if its callback is null and it has not been added
+		 * @param operation An operation
+		 * @return Callback id
+		 */
+		public int add(Operation operation) {
+			if (operation.getCallback() == null)
+				return -1;
+			int key = currentKey++;
+			super.put(key, operation);
+			return key;
+		}
+
+		/**
+		 * @return Current key counter
+		 */
+		public int getCurrentKey() {
+			return currentKey;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.HashMap#put(java.lang.Object, java.lang.Object)
+		 */
+		@Override
+		public Operation put(Integer key,
+				Operation value) throws UnsupportedOperationException {
+			throw new UnsupportedOperationException();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.HashMap#putAll(java.util.Map)
+		 */
+		@Override
+		public void putAll(
+				Map<? extends Integer, ? extends Operation> m)
+					throws UnsupportedOperationException {
+			throw new UnsupportedOperationException();
+		}
+		
+	}
+	
+	/**
+	 * An operation that gets sent to the client-side
+	 * @author Max Schuster
+	 */
+	private abstract static class Operation implements
+			LocalStorageScheduler.Schedulable<Operation>, Serializable {
+		
+		/**
+		 * Operation type
+		 */
+		private final OperationType type;
+		
+		/**
+		 * Items key
+		 */
+		private final String key;
+		
+		/**
+		 * Size of the sent value or -1
+		 */
+		private final int valueSize;
+		
+		/**
+		 * The callback or null
+		 */
+		private final OperationCallback callback;
+		
+		/**
+		 * Recorder of this operation or null
+		 */
+		private transient LocalStorageFlightRecorder recorder;
+		
+		/**
+		 * Record id of this operation
+		 */
+		private transient long recordId;
+		
+		/**
+		 * Priority of this operation, set when it gets executed
+		 */
+		private transient LocalStoragePriority priority;
+		
+		/**
+		 * Limiters that admitted this operation until it gets sent
+		 */
+		private transient LocalStorageLimiter[] admission;
+		
+		/**
+		 * @param type Operation type
+		 * @param key Items key
+		 * @param valueSize Size of the sent value or -1
+		 * @param callback The callback or null
+		 */
+		public Operation(OperationType type, String key, int valueSize, OperationCallback callback) {
+			this.type = type;
+			this.key = key;
+			this.valueSize = valueSize;
+			this.callback = callback;
+		}
+		
+		/**
+		 * Records the sending of this operation
+		 * @param recorder The recorder
+		 * @param pending A callback is pending
+		 */
+		void recordSend(LocalStorageFlightRecorder recorder, boolean pending) {
+			long id = recorder.begin(type, key, valueSize, pending ? Outcome.PENDING : Outcome.SENT);
+			if (pending) {
+				this.recorder = recorder;
+				this.recordId = id;
+			}
+		}
+		
+		/**
+		 * Records the response of this operation if it has been recorded
+		 * @param outcome The outcome
+		 * @param valueSize Size of the received value or -1
+		 */
+		void recordCompletion(Outcome outcome, int valueSize) {
+			if (recorder != null) {
+				recorder.complete(recordId, outcome, valueSize);
+				recorder = null;
+			}
+		}
+		
+		/**
+		 * @return Operation type
+		 */
+		public OperationType getType() {
+			return type;
+		}
+		
+		/**
+		 * @return Size of the sent value or -1
+		 */
+		public int getValueSize() {
+			return valueSize;
+		}
+		
+		/**
+		 * Invokes the client rpc method of the operation
+		 * @param rpc The client rpc proxy
+		 * @param callbackId Callback id. If &lt; 0 no callback will get triggered.
+		 */
+		abstract void send(LocalStorageClientRpc rpc, int callbackId);
+		
+		/**
+		 * @return Keys of the items this operation writes or null if it's
+		 * described by {@link #getKey()}
+		 */
+		public Collection<String> getKeys() {
+			return null;
+		}
+		
+		/**
+		 * @return Priority of this operation if none has been requested
+		 */
+		LocalStoragePriority getDefaultPriority() {
+			switch (type) {
+			case GET:
+			case GET_CONDITIONAL:
+			case QUERY:
+			case USAGE:
+				return LocalStoragePriority.INTERACTIVE;
+			case SET_ALL:
+			case SNAPSHOT:
+			case RESTORE:
+				return LocalStoragePriority.BACKGROUND;
+			default:
+				return LocalStoragePriority.NORMAL;
+			}
+		}
+		
+		/**
+		 * @return This operation only reads
+		 */
+		private boolean isRead() {
+			return type == OperationType.GET || type == OperationType.GET_CONDITIONAL
+					|| type == OperationType.QUERY || type == OperationType.USAGE
+					|| type == OperationType.SNAPSHOT;
+		}
+		
+		/**
+		 * @return {@link #getKey()} is a key prefix
+		 */
+		public boolean isRange() {
+			return type == OperationType.QUERY || type == OperationType.SNAPSHOT;
+		}
+		
+		/**
+		 * @param later An operation scheduled after this one
+		 * @return The operations must not be reordered because they access
+		 * the same items and at least one of them writes
+		 */
+		public boolean conflictsWith(Operation later) {
+			if (isRead() && later.isRead()) {
+				return false;
+			}
+			Collection<String> keys = getKeys();
+			if (keys != null) {
+				return later.touchesAny(keys);
+			}
+			keys = later.getKeys();
+			if (keys != null) {
+				return touchesAny(keys);
+			}
+			return touches(later.getKey(), later.isRange());
+		}
+		
+		/**
+		 * @param keys Keys of items
+		 * @return This operation may access one of the items
+		 */
+		private boolean touchesAny(Collection<String> keys) {
+			for (String k : keys) {
+				if (touches(k, false)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * @param k Items key, key prefix or null for all items
+		 * @param range The key is a key prefix
+		 * @return This operation may access one of the items
+		 */
+		private boolean touches(String k, boolean range) {
+			if (key == null || k == null) {
+				return true;
+			}
+			if (isRange()) {
+				return k.startsWith(key) || range && key.startsWith(k);
+			}
+			return range ? key.startsWith(k) : key.equals(k);
+		}
+
+		/**
+		 * @return Items key
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return The callback or null
+		 */
+		public OperationCallback getCallback() {
+			return callback;
+		}
+		
+	}
+	
+	/**
+	 * Key and callback of an operation that was pending when this instance
+	 * got serialized. Its answer can't arrive anymore, so it only gets
+	 * failed by {@link LocalStorage#failOrphans()}.
+	 * @author Max Schuster
+	 */
+	private static class Orphan {
+		
+		/**
+		 * Items key
+		 */
+		private final String key;
+		
+		/**
+		 * The callback of the caller
+		 */
+		private final Serializable callback;
+		
+		/**
+		 * @param key Items key
+		 * @param callback The callback of the caller
+		 */
+		public Orphan(String key, Serializable callback) {
+			this.key = key;
+			this.callback = callback;
+		}
+		
+		/**
+		 * @return Items key
+		 */
+		public String getKey() {
+			return key;
+		}
+		
+		/**
+		 * @return The callback of the caller
+		 */
+		public Serializable getCallback() {
+			return callback;
+		}
+		
+		/**
+		 * Calls the <code>onError</code> method of the callback
+		 */
+		public void fail() {
+			if (callback instanceof LocalStorageItemCallback) {
+				((LocalStorageItemCallback) callback).onError(key);
+			} else if (callback instanceof LocalStorageQueryCallback) {
+				((LocalStorageQueryCallback) callback).onError(key);
+			} else if (callback instanceof LocalStorageUsageCallback) {
+				((LocalStorageUsageCallback) callback).onError();
+			} else if (callback instanceof LocalStorageSnapshotCallback) {
+				((LocalStorageSnapshotCallback) callback).onError();
+			}
+		}
+		
+	}
+	
+	/**
+	 * Internal callback of an {@link Operation}. Each type of operation has
+	 * its own implementation that receives the matching answer of the
+	 * client-side.
+	 * @author Max Schuster
+	 */
+	private interface OperationCallback {
+		
+		/**
+		 * Gets called when the operation failed, got rejected or can't be
+		 * answered anymore
+		 * @param key Items key, key prefix or null
+		 */
+		public void onError(String key);
+		
+		/**
+		 * @return The callback of the caller or null
+		 */
+		public Object getCallerCallback();
+		
+	}
+	
+	/**
+	 * Callback of an operation that gets answered with a
+	 * {@link LocalStorageItem}. Wraps the callback of the caller.
+	 * @author Max Schuster
+	 */
+	private static class ItemCallback implements OperationCallback {
+		
+		/**
+		 * The callback of the caller
+		 */
+		protected final LocalStorageItemCallback callback;
+		
+		/**
+		 * @param callback The callback of the caller
+		 */
+		public ItemCallback(LocalStorageItemCallback callback) {
+			this.callback = callback;
+		}
+		
+		/**
+		 * @param callback The callback of the caller or null
+		 * @return The wrapped callback or null
+		 */
+		public static ItemCallback wrap(LocalStorageItemCallback callback) {
+			return callback != null ? new ItemCallback(callback) : null;
+		}
+		
+		/**
+		 * Gets called with the answer of the client-side
+		 * @param item The item
+		 */
+		public void onSuccess(LocalStorageItem item) {
+			callback.onSuccess(item);
+		}
+
+		@Override
+		public void onError(String key) {
+			callback.onError(key);
+		}
+		
+		@Override
+		public Object getCallerCallback() {
+			return callback;
+		}
+		
+	}
+	
+	/**
+	 * Completes the {@link LocalStorageItem} of a write with the data that
+	 * has been written, so the client-side doesn't have to send it back.
+	 * @author Max Schuster
+	 */
+	private static class WriteCallback extends ItemCallback {
+		
+		/**
+		 * The written data
+		 */
+		private final String data;
+		
+		/**
+		 * @param data The written data
+		 * @param callback The callback of the caller
+		 */
+		public WriteCallback(String data, LocalStorageItemCallback callback) {
+			super(callback);
+			this.data = data;
+		}
+
+		@Override
+		public void onSuccess(LocalStorageItem item) {
+			item.setData(data);
+			callback.onSuccess(item);
+		}
+		
 	}
 	
 	/**
-	 * Adds a listener for the {@link ItemUpdateEvent}
-	 * @param listener Listener for the {@link ItemUpdateEvent}
-	 * @see ItemUpdateEvent
+	 * Completes the {@link LocalStorageItem} of a conditional read with the
+	 * data known by the server-side when the client-side reports it as
+	 * unchanged.
+	 * @author Max Schuster
 	 */
-	public void addItemUpdateListener(ItemUpdateListener listener) {
-		addListener(ItemUpdateEvent.ITEM_UPDATE_EVENT_IDENTIFIER, ItemUpdateEvent.class,
-				listener, ItemUpdateListener.onUpdateMethod);
+	private static class ConditionalReadCallback extends ItemCallback {
+		
+		/**
+		 * The data known by the server-side
+		 */
+		private final String knownData;
+		
+		/**
+		 * @param knownData The data known by the server-side
+		 * @param callback The callback of the caller
+		 */
+		public ConditionalReadCallback(String knownData, LocalStorageItemCallback callback) {
+			super(callback);
+			this.knownData = knownData;
+		}
+		
+		/**
+		 * Gets called when the stored data equals the known data
+		 * @param key Items key
+		 */
+		public void onUnchanged(String key) {
+			callback.onSuccess(new LocalStorageItem(key, null, knownData));
+		}
+		
 	}
 	
 	/**
-	 * Removes a listener for the {@link ItemUpdateEvent}
-	 * @param listener Listener for the {@link ItemUpdateEvent}
+	 * Reports the changes of a write to the {@link LocalStorage#sync} when
+	 * the client-side has stored them
+	 * @author Max Schuster
 	 */
-	public void removeItemUpdateListener(ItemUpdateListener listener) {
-		removeListener(ItemUpdateEvent.ITEM_UPDATE_EVENT_IDENTIFIER, ItemUpdateEvent.class,
-				listener);
+	private class SyncCallback extends ItemCallback {
+		
+		/**
+		 * Callback of the write or null
+		 */
+		private final ItemCallback write;
+		
+		/**
+		 * Written data by key or null if all items have been removed
+		 */
+		private final Map<String, String> changes;
+		
+		/**
+		 * @param write Callback of the write or null
+		 * @param changes Written data by key or null if all items have been
+		 * removed
+		 */
+		public SyncCallback(ItemCallback write, Map<String, String> changes) {
+			super(write != null ? write.callback : null);
+			this.write = write;
+			this.changes = changes;
+		}
+		
+		@Override
+		public void onSuccess(LocalStorageItem item) {
+			if (sync != null) {
+				if (changes == null) {
+					sync.onClear();
+				} else {
+					for (Map.Entry<String, String> change : changes.entrySet()) {
+						sync.onItemChanged(change.getKey(), change.getValue());
+					}
+				}
+			}
+			if (write != null) {
+				write.onSuccess(item);
+			}
+		}
+		
+		@Override
+		public void onError(String key) {
+			if (write != null) {
+				write.onError(key);
+			}
+		}
+		
 	}
 	
 	/**
-	 * Contains all callbacks of a {@link LocalStorage} instance
+	 * Adapts a {@link LocalStorageQueryCallback}, so queries can share the
+	 * bookkeeping of the other operations
 	 * @author Max Schuster
 	 */
-	private class LocalStorageItemCallbacks extends HashMap<Integer, LocalStorageItemCallback> {
+	private static class QueryCallback implements OperationCallback {
 		
 		/**
-		 * Current key counter
+		 * Key prefix of the query
 		 */
-		private int currentKey = 0;
+		private final String keyPrefix;
 		
 		/**
-		 * Adds a callback and returns a callback id or
-		 * -1 if callback is null and has not been added
-		 * @param callback A callback
-		 * @return Callback id
+		 * The callback of the caller
 		 */
-		public int add(LocalStorageItemCallback callback) {
-			if (callback == null)
-				return -1;
-			int key = currentKey++;
-			super.put(key, callback);
-			return key;
+		private final LocalStorageQueryCallback callback;
+		
+		/**
+		 * @param keyPrefix Key prefix of the query
+		 * @param callback The callback of the caller
+		 */
+		public QueryCallback(String keyPrefix, LocalStorageQueryCallback callback) {
+			this.keyPrefix = keyPrefix;
+			this.callback = callback;
+		}
+		
+		/**
+		 * Gets called with the result of the query
+		 * @param keys Keys of the matching items
+		 * @param data Data of the matching items or null
+		 */
+		public void onResult(List<String> keys, List<String> data) {
+			List<LocalStorageItem> items = new ArrayList<LocalStorageItem>(keys.size());
+			for (int i = 0; i < keys.size(); i++) {
+				items.add(new LocalStorageItem(keys.get(i), null, data != null ? data.get(i) : null));
+			}
+			callback.onSuccess(items);
+		}
+		
+		/**
+		 * @return Key prefix of the query
+		 */
+		public String getKeyPrefix() {
+			return keyPrefix;
 		}
 
-		/* (non-Javadoc)
-		 * @see java.util.HashMap#put(java.lang.Object, java.lang.Object)
+		@Override
+		public void onError(String key) {
+			callback.onError(key);
+		}
+		
+		@Override
+		public Object getCallerCallback() {
+			return callback;
+		}
+		
+	}
+	
+	/**
+	 * Adapts a {@link LocalStorageUsageCallback}, so usage requests can share
+	 * the bookkeeping of the other operations
+	 * @author Max Schuster
+	 */
+	private static class UsageCallback implements OperationCallback {
+		
+		/**
+		 * The requested prefixes
+		 */
+		private final List<String> prefixes;
+		
+		/**
+		 * The callback of the caller
 		 */
+		private final LocalStorageUsageCallback callback;
+		
+		/**
+		 * @param prefixes The requested prefixes
+		 * @param callback The callback of the caller
+		 */
+		public UsageCallback(List<String> prefixes, LocalStorageUsageCallback callback) {
+			this.prefixes = prefixes;
+			this.callback = callback;
+		}
+		
+		/**
+		 * Gets called with the usage
+		 * @param usage The usage
+		 */
+		public void onResult(LocalStorageUsage usage) {
+			callback.onSuccess(usage);
+		}
+		
+		/**
+		 * @return The requested prefixes
+		 */
+		public List<String> getPrefixes() {
+			return prefixes;
+		}
+
 		@Override
-		public LocalStorageItemCallback put(Integer key,
-				LocalStorageItemCallback value) throws UnsupportedOperationException {
-			throw new UnsupportedOperationException();
+		public void onError(String key) {
+			callback.onError();
+		}
+		
+		@Override
+		public Object getCallerCallback() {
+			return callback;
+		}
+		
+	}
+	
+	/**
+	 * Step by step transfer of a snapshot
+	 * @author Max Schuster
+	 */
+	private static abstract class TransferCallback implements OperationCallback {
+		
+		/**
+		 * The callback of the caller
+		 */
+		private final LocalStorageSnapshotCallback callback;
+		
+		/**
+		 * Number of transferred bytes
+		 */
+		protected long bytes = 0;
+		
+		/**
+		 * @param callback The callback of the caller
+		 */
+		public TransferCallback(LocalStorageSnapshotCallback callback) {
+			this.callback = callback;
+		}
+		
+		/**
+		 * Handles a successful step of the client-side and starts the next
+		 * one
+		 * @param rpc Client rpc
+		 * @param callbackId Callback id of the transfer
+		 * @param chunk Received chunk or null
+		 * @param last The client-side completed the transfer
+		 * @return The transfer is complete
+		 * @throws IOException
+		 */
+		public abstract boolean onStep(LocalStorageClientRpc rpc, int callbackId,
+				String chunk, boolean last) throws IOException;
+		
+		/**
+		 * @param success The transfer was successful
+		 */
+		public void onCompleted(boolean success) {
+			if (success) {
+				callback.onSuccess(bytes);
+			} else {
+				callback.onError();
+			}
+		}
+		
+		/**
+		 * @return Number of transferred bytes
+		 */
+		public long getBytes() {
+			return bytes;
 		}
 
-		/* (non-Javadoc)
-		 * @see java.util.HashMap#putAll(java.util.Map)
+		@Override
+		public void onError(String key) {
+			callback.onError();
+		}
+		
+		@Override
+		public Object getCallerCallback() {
+			return callback;
+		}
+		
+	}
+	
+	/**
+	 * Writes the chunks of a snapshot to an {@link OutputStream}
+	 * @author Max Schuster
+	 */
+	private static class SnapshotCallback extends TransferCallback {
+		
+		/**
+		 * Receives the snapshot
+		 */
+		private final OutputStream out;
+		
+		/**
+		 * @param out Receives the snapshot
+		 * @param callback The callback of the caller
 		 */
+		public SnapshotCallback(OutputStream out, LocalStorageSnapshotCallback callback) {
+			super(callback);
+			this.out = out;
+		}
+
 		@Override
-		public void putAll(
-				Map<? extends Integer, ? extends LocalStorageItemCallback> m)
-					throws UnsupportedOperationException {
-			throw new UnsupportedOperationException();
+		public boolean onStep(LocalStorageClientRpc rpc, int callbackId,
+				String chunk, boolean last) throws IOException {
+			try {
+				byte[] decoded = LocalStorageBinaryCodec.decode(chunk);
+				out.write(decoded);
+				bytes += decoded.length;
+				if (last) {
+					out.flush();
+				}
+			} catch (IOException e) {
+				if (!last) {
+					rpc.continueSnapshot(callbackId, true);
+				}
+				throw e;
+			}
+			if (!last) {
+				rpc.continueSnapshot(callbackId, false);
+			}
+			return last;
+		}
+		
+	}
+	
+	/**
+	 * Sends the chunks of a snapshot read from an {@link InputStream}
+	 * @author Max Schuster
+	 */
+	private static class RestoreCallback extends TransferCallback {
+		
+		/**
+		 * The snapshot
+		 */
+		private final InputStream in;
+		
+		/**
+		 * The end of the stream has been reached
+		 */
+		private boolean endOfStream = false;
+		
+		/**
+		 * @param in The snapshot
+		 * @param callback The callback of the caller
+		 */
+		public RestoreCallback(InputStream in, LocalStorageSnapshotCallback callback) {
+			super(callback);
+			this.in = in;
+		}
+		
+		/**
+		 * Reads the next chunk
+		 * @return The chunk encoded by {@link LocalStorageBinaryCodec}
+		 * @throws IOException
+		 */
+		public String readChunk() throws IOException {
+			byte[] buffer = new byte[SNAPSHOT_CHUNK_LENGTH];
+			int length = 0;
+			while (length < buffer.length) {
+				int read = in.read(buffer, length, buffer.length - length);
+				if (read < 0) {
+					endOfStream = true;
+					break;
+				}
+				length += read;
+			}
+			bytes += length;
+			return LocalStorageBinaryCodec.encode(buffer, 0, length);
+		}
+		
+		/**
+		 * @return The end of the stream has been reached
+		 */
+		public boolean isEndOfStream() {
+			return endOfStream;
+		}
+
+		@Override
+		public boolean onStep(LocalStorageClientRpc rpc, int callbackId,
+				String chunk, boolean last) throws IOException {
+			if (last) {
+				return true;
+			}
+			String next;
+			try {
+				next = readChunk();
+			} catch (IOException e) {
+				rpc.restoreSnapshot(callbackId, null, true);
+				throw e;
+			}
+			rpc.restoreSnapshot(callbackId, next, endOfStream);
+			return false;
 		}
 		
 	}
@@ -391,6 +2571,21 @@ public class LocalStorage extends AbstractExtension {
 		 */
 		private final Type type;
 		
+		/**
+		 * The event has been sent without the data of the item
+		 */
+		private final boolean lazy;
+		
+		/**
+		 * The fetched item of a lazy event
+		 */
+		private LocalStorageItem fetchedItem = null;
+		
+		/**
+		 * Callbacks waiting for the data of a lazy event
+		 */
+		private transient List<LocalStorageItemCallback> waiting = null;
+		
 		/**
 		 * @param source Source {@link UI} instance.
 		 * @param localStorage Source {@link LocalStorage} instance.
@@ -399,6 +2594,7 @@ public class LocalStorage extends AbstractExtension {
 		public ItemUpdateEvent(UI source, LocalStorage localStorage, LocalStorageItem item) {
 			super(source, localStorage);
 			this.item = item;
+			this.lazy = false;
 			if (item != null && item.getKey() == null) {
 				type = Type.CLEAR;
 			} else if (item != null && item.getData() == null) {
@@ -409,10 +2605,92 @@ public class LocalStorage extends AbstractExtension {
 		}
 
 		/**
-		 * @return The updated {@link LocalStorageItem}
+		 * Creates an event without the data of the item
+		 * @param source Source {@link UI} instance.
+		 * @param localStorage Source {@link LocalStorage} instance.
+		 * @param key Items key or null if the storage has been cleared
+		 * @param removed The item has been removed
+		 * @see LocalStorage#setLazyItemUpdateEvents(boolean)
+		 */
+		public ItemUpdateEvent(UI source, LocalStorage localStorage, String key, boolean removed) {
+			super(source, localStorage);
+			this.item = new LocalStorageItem(key, null, null);
+			this.lazy = true;
+			if (key == null) {
+				type = Type.CLEAR;
+			} else if (removed) {
+				type = Type.REMOVE;
+			} else {
+				type = Type.UPDATE;
+			}
+		}
+
+		/**
+		 * @return The updated {@link LocalStorageItem}. Only contains the key
+		 * if the data hasn't been loaded.
+		 * @see #isDataLoaded()
 		 */
 		public LocalStorageItem getItem() {
-			return item;
+			return fetchedItem != null ? fetchedItem : item;
+		}
+		
+		/**
+		 * @return The data of the item is available through {@link #getItem()}
+		 * @see LocalStorage#setLazyItemUpdateEvents(boolean)
+		 */
+		public boolean isDataLoaded() {
+			return !lazy || fetchedItem != null || type == Type.CLEAR;
+		}
+		
+		/**
+		 * Gets the updated item with its data. If the data hasn't been loaded
+		 * it gets fetched from the client-side once, later calls are answered
+		 * from the fetched item. The fetched data is the current data of the
+		 * item, which may be newer than this change. The old data is the one
+		 * the client-side remembered from the latest change of the item.
+		 * <p>Fails if the client-side doesn't remember the old data anymore.
+		 * See {@link LocalStorage#setLazyItemUpdateEvents(boolean)}.</p>
+		 * @param callback A callback
+		 */
+		@SuppressWarnings("serial")
+		public void fetchItem(LocalStorageItemCallback callback) {
+			if (isDataLoaded()) {
+				callback.onSuccess(getItem());
+				return;
+			}
+			if (waiting != null) {
+				waiting.add(callback);
+				return;
+			}
+			waiting = new ArrayList<LocalStorageItemCallback>();
+			waiting.add(callback);
+			getLocalStorage().fetchChangedItem(item.getKey(), new LocalStorageItemCallback() {
+				
+				@Override
+				public void onSuccess(LocalStorageItem fetched) {
+					fetchedItem = fetched;
+					for (LocalStorageItemCallback c : takeWaiting()) {
+						c.onSuccess(fetched);
+					}
+				}
+				
+				@Override
+				public void onError(String key) {
+					for (LocalStorageItemCallback c : takeWaiting()) {
+						c.onError(key);
+					}
+				}
+				
+			});
+		}
+		
+		/**
+		 * @return The waiting callbacks, which are removed
+		 */
+		private List<LocalStorageItemCallback> takeWaiting() {
+			List<LocalStorageItemCallback> callbacks = waiting;
+			waiting = null;
+			return callbacks != null ? callbacks : new ArrayList<LocalStorageItemCallback>(0);
 		}
 
 		/**
@@ -0,0 +1,43 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageBytesCallback.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Callback for {@link LocalStorage#getBytes(String, LocalStorageBytesCallback)}
+ * @author Max Schuster
+ */
+public interface LocalStorageBytesCallback extends Serializable {
+
+	/**
+	 * Gets called on success
+	 * @param key Items key
+	 * @param data Items binary data or null if the item doesn't exist
+	 */
+	public void onSuccess(String key, ByteBuffer data);
+	
+	/**
+	 * Gets called on error or when the item doesn't contain binary data
+	 * @param key Key of the failed item
+	 */
+	public void onError(String key);
+	
+}
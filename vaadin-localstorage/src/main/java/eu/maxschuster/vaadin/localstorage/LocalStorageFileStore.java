@@ -0,0 +1,279 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageFileStore.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link LocalStorageStore} that keeps the entries of each owner in a file
+ * of a directory.
+ * <p>Each write rewrites the file of the owner into a temporary file that
+ * gets synced to the disk and then renamed over the old one, so a crash
+ * doesn't leave a partially written file behind. Whether the rename itself
+ * survives a power loss depends on the file system. Where renaming doesn't
+ * replace an existing file, e.g. on Windows, the old file is moved to a
+ * backup first. Between the two renames the owner has no file, reads then
+ * fall back to the backup.</p>
+ * <p>Files are named after the SHA-256 hash of the owner. Access to the file of an owner is serialized across all instances
+ * of the JVM, other processes must not use the same directory.</p>
+ * @author Max Schuster
+ */
+public class LocalStorageFileStore implements LocalStorageStore {
+	
+	/**
+	 * Serialize the access to the files of the owners, striped by the files
+	 * path
+	 */
+	private static final Object[] LOCKS = new Object[64];
+	
+	static {
+		for (int i = 0; i < LOCKS.length; i++) {
+			LOCKS[i] = new Object();
+		}
+	}
+	
+	/**
+	 * Identifies the file format
+	 */
+	private static final int MAGIC = 0x4C535331;
+	
+	/**
+	 * Encoding of keys and data
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	/**
+	 * The directory
+	 */
+	private final File directory;
+	
+	/**
+	 * @param directory The directory. Gets created if it doesn't exist.
+	 */
+	public LocalStorageFileStore(File directory) {
+		if (directory == null) {
+			throw new NullPointerException();
+		}
+		this.directory = directory;
+	}
+
+	/* (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.LocalStorageStore#load(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public List<Entry> load(String owner, String keyPrefix) throws IOException {
+		File file = getFile(owner);
+		Map<String, Entry> entries;
+		synchronized (getLock(file)) {
+			entries = read(file);
+		}
+		List<Entry> result = new ArrayList<Entry>();
+		for (Entry entry : entries.values()) {
+			if (entry.getKey().startsWith(keyPrefix)) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.LocalStorageStore#write(java.lang.String, java.util.List)
+	 */
+	@Override
+	public List<Entry> write(String owner, List<Entry> changes) throws IOException {
+		File file = getFile(owner);
+		synchronized (getLock(file)) {
+			Map<String, Entry> entries = read(file);
+			List<Entry> conflicts = LocalStorageMemoryStore.apply(entries, changes);
+			if (conflicts.size() < changes.size()) {
+				write(file, entries);
+			}
+			return conflicts;
+		}
+	}
+	
+	/**
+	 * @return The directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * @param owner Identifies the user
+	 * @return The file of the owner
+	 */
+	private File getFile(String owner) {
+		// Hashed, so every owner is a valid file name of the same length
+		byte[] bytes;
+		try {
+			bytes = MessageDigest.getInstance("SHA-256").digest(owner.getBytes(UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+		StringBuilder name = new StringBuilder(bytes.length * 2 + 4);
+		for (byte b : bytes) {
+			name.append(Character.forDigit((b >> 4) & 0xF, 16));
+			name.append(Character.forDigit(b & 0xF, 16));
+		}
+		return new File(directory, name.append(".lss").toString());
+	}
+	
+	/**
+	 * @param file File of an owner
+	 * @return Guards the file
+	 */
+	private static Object getLock(File file) {
+		int hash = file.getAbsolutePath().hashCode();
+		return LOCKS[(hash ^ (hash >>> 16)) & (LOCKS.length - 1)];
+	}
+	
+	/**
+	 * @param file File of an owner
+	 * @return Keeps the old file while it gets replaced
+	 */
+	private static File getBackup(File file) {
+		return new File(file.getParentFile(), file.getName() + ".bak");
+	}
+	
+	/**
+	 * Reads the entries of an owner
+	 * @param file File of the owner
+	 * @return Entries by key
+	 * @throws IOException
+	 */
+	private Map<String, Entry> read(File file) throws IOException {
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		if (!file.exists()) {
+			// Interrupted between the renames of a replacement
+			file = getBackup(file);
+			if (!file.exists()) {
+				return entries;
+			}
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a store file: " + file);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = readString(in);
+				long version = in.readLong();
+				String data = in.readBoolean() ? readString(in) : null;
+				entries.put(key, new Entry(key, data, version));
+			}
+		} finally {
+			in.close();
+		}
+		return entries;
+	}
+	
+	/**
+	 * Replaces the entries of an owner
+	 * @param file File of the owner
+	 * @param entries Entries by key
+	 * @throws IOException
+	 */
+	private void write(File file, Map<String, Entry> entries) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IOException("Can't create directory " + directory);
+		}
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		boolean replaced = false;
+		try {
+			FileOutputStream stream = new FileOutputStream(temp);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(entries.size());
+				for (Entry entry : entries.values()) {
+					writeString(out, entry.getKey());
+					out.writeLong(entry.getVersion());
+					out.writeBoolean(entry.getData() != null);
+					if (entry.getData() != null) {
+						writeString(out, entry.getData());
+					}
+				}
+				out.flush();
+				stream.getFD().sync();
+			} finally {
+				out.close();
+			}
+			replaced = temp.renameTo(file);
+			if (!replaced) {
+				// Some platforms don't replace existing files
+				File backup = getBackup(file);
+				backup.delete();
+				replaced = (!file.exists() || file.renameTo(backup)) && temp.renameTo(file);
+				if (replaced) {
+					backup.delete();
+				}
+			}
+			if (!replaced) {
+				throw new IOException("Can't replace " + file);
+			}
+		} finally {
+			if (!replaced) {
+				temp.delete();
+			}
+		}
+	}
+	
+	/**
+	 * @param in The stream
+	 * @return A string written by {@link #writeString(DataOutputStream, String)}
+	 * @throws IOException
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+	
+	/**
+	 * Writes the string as length prefixed UTF-8, unlike
+	 * {@link DataOutputStream#writeUTF(String)} it isn't limited to 64KB
+	 * @param out The stream
+	 * @param string The string
+	 * @throws IOException
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+}
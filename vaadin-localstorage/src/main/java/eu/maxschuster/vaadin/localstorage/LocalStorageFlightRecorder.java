@@ -0,0 +1,270 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageFlightRecorder.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records the last operations of one or more {@link LocalStorage}
+ * instances in a ring buffer, so single slow calls can be diagnosed.
+ * <p>All storage is allocated up front and recording neither locks nor
+ * allocates. Records are overwritten when the buffer wraps around, a
+ * record that is overwritten while its operation is still in flight may
+ * be inconsistent. Use {@link #dump()} directly or register the recorder
+ * as an MBean with {@link #registerMBean(String)}.</p>
+ * @author Max Schuster
+ * @see LocalStorage#setFlightRecorder(LocalStorageFlightRecorder)
+ */
+public class LocalStorageFlightRecorder implements LocalStorageFlightRecorderMBean {
+	
+	/**
+	 * Recorded operation types
+	 * @author Max Schuster
+	 */
+	public enum OperationType {
+		GET,
+		GET_CONDITIONAL,
+		SET,
+		REMOVE,
+		CLEAR,
+		QUERY,
+		USAGE,
+		SET_ALL,
+		SNAPSHOT,
+		RESTORE
+	}
+	
+	/**
+	 * Outcome of a recorded operation
+	 * @author Max Schuster
+	 */
+	public enum Outcome {
+		
+		/**
+		 * Sent and waiting for the callback
+		 */
+		PENDING,
+		
+		/**
+		 * Sent without a callback
+		 */
+		SENT,
+		
+		SUCCESS,
+		
+		/**
+		 * Conditional read of unchanged data
+		 */
+		UNCHANGED,
+		
+		ERROR,
+		
+		/**
+		 * Rejected by a {@link LocalStorageLimiter}
+		 */
+		REJECTED
+	}
+	
+	private static final OperationType[] TYPES = OperationType.values();
+	
+	private static final Outcome[] OUTCOMES = Outcome.values();
+	
+	/**
+	 * Mask of the slot index
+	 */
+	private final int mask;
+	
+	/**
+	 * Next record id
+	 */
+	private final AtomicLong nextId = new AtomicLong();
+	
+	/**
+	 * Record id + 1 of each slot. Negative while the slot gets written,
+	 * 0 if it is empty.
+	 */
+	private final AtomicLongArray ids;
+	
+	private final byte[] types;
+	
+	private final byte[] outcomes;
+	
+	private final int[] keyHashes;
+	
+	private final int[] valueSizes;
+	
+	/**
+	 * Send time as returned by {@link System#currentTimeMillis()}
+	 */
+	private final long[] sendMillis;
+	
+	/**
+	 * Send time as returned by {@link System#nanoTime()}
+	 */
+	private final long[] sendNanos;
+	
+	/**
+	 * Response time as returned by {@link System#nanoTime()}
+	 */
+	private final long[] responseNanos;
+	
+	/**
+	 * Name of the registered MBean or null
+	 */
+	private ObjectName objectName = null;
+	
+	/**
+	 * @param capacity Number of records kept. Rounded up to a power of two.
+	 */
+	public LocalStorageFlightRecorder(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("capacity");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		ids = new AtomicLongArray(size);
+		types = new byte[size];
+		outcomes = new byte[size];
+		keyHashes = new int[size];
+		valueSizes = new int[size];
+		sendMillis = new long[size];
+		sendNanos = new long[size];
+		responseNanos = new long[size];
+	}
+	
+	/**
+	 * Records a sent operation
+	 * @param type Operation type
+	 * @param key Items key
+	 * @param valueSize Size of the value in characters or -1 if unknown
+	 * @param outcome {@link Outcome#PENDING} or the final outcome
+	 * @return The record id
+	 */
+	long begin(OperationType type, String key, int valueSize, Outcome outcome) {
+		long id = nextId.getAndIncrement();
+		int slot = (int) (id & mask);
+		ids.set(slot, -(id + 1));
+		long now = System.nanoTime();
+		types[slot] = (byte) type.ordinal();
+		outcomes[slot] = (byte) outcome.ordinal();
+		keyHashes[slot] = key != null ? key.hashCode() : 0;
+		valueSizes[slot] = valueSize;
+		sendMillis[slot] = System.currentTimeMillis();
+		sendNanos[slot] = now;
+		responseNanos[slot] = outcome == Outcome.PENDING ? 0 : now;
+		ids.set(slot, id + 1);
+		return id;
+	}
+	
+	/**
+	 * Records the response of an operation
+	 * @param id The record id
+	 * @param outcome The outcome
+	 * @param valueSize Size of the received value in characters or -1 to
+	 * keep the recorded size
+	 */
+	void complete(long id, Outcome outcome, int valueSize) {
+		int slot = (int) (id & mask);
+		if (!ids.compareAndSet(slot, id + 1, -(id + 1))) {
+			// Already overwritten
+			return;
+		}
+		responseNanos[slot] = System.nanoTime();
+		outcomes[slot] = (byte) outcome.ordinal();
+		if (valueSize >= 0) {
+			valueSizes[slot] = valueSize;
+		}
+		ids.compareAndSet(slot, -(id + 1), id + 1);
+	}
+
+	@Override
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	@Override
+	public long getRecorded() {
+		return nextId.get();
+	}
+
+	@Override
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("id\ttype\tkeyHash\tvalueSize\tsendTimeMillis\tlatencyMicros\toutcome\n");
+		long last = nextId.get();
+		for (long id = Math.max(0, last - getCapacity()); id < last; id++) {
+			int slot = (int) (id & mask);
+			if (ids.get(slot) != id + 1) {
+				continue;
+			}
+			OperationType type = TYPES[types[slot]];
+			Outcome outcome = OUTCOMES[outcomes[slot]];
+			int keyHash = keyHashes[slot];
+			int valueSize = valueSizes[slot];
+			long send = sendMillis[slot];
+			long latency = responseNanos[slot] != 0 ? (responseNanos[slot] - sendNanos[slot]) / 1000 : -1;
+			if (ids.get(slot) != id + 1) {
+				// Changed while reading
+				continue;
+			}
+			sb.append(id).append('\t').append(type).append('\t')
+				.append(Integer.toHexString(keyHash)).append('\t').append(valueSize).append('\t')
+				.append(send).append('\t').append(latency).append('\t').append(outcome).append('\n');
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Registers this recorder with the platform MBean server as
+	 * {@code eu.maxschuster.vaadin.localstorage:type=LocalStorageFlightRecorder,name=<name>}.
+	 * Replaces an earlier registration of this recorder.
+	 * @param name Distinguishes it from other registered recorders
+	 * @throws JMException if it can't be registered, e.g. because the name
+	 * is already in use
+	 */
+	public synchronized void registerMBean(String name) throws JMException {
+		ObjectName registered = LocalStorageJmx.register(this, "LocalStorageFlightRecorder", name);
+		unregisterMBean();
+		objectName = registered;
+	}
+	
+	/**
+	 * Unregisters this recorder from the platform MBean server if it is
+	 * registered
+	 */
+	public synchronized void unregisterMBean() {
+		LocalStorageJmx.unregister(objectName);
+		objectName = null;
+	}
+	
+	/**
+	 * @return Name this recorder is registered under or null
+	 */
+	public synchronized ObjectName getObjectName() {
+		return objectName;
+	}
+	
+}
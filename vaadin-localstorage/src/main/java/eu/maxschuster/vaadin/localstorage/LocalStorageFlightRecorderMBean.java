@@ -0,0 +1,43 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageFlightRecorderMBean.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+/**
+ * Management interface of {@link LocalStorageFlightRecorder}. Allows
+ * operators to dump the recorded operations through JMX.
+ * @author Max Schuster
+ */
+public interface LocalStorageFlightRecorderMBean {
+	
+	/**
+	 * @return Number of records kept
+	 */
+	public int getCapacity();
+	
+	/**
+	 * @return Total number of recorded operations
+	 */
+	public long getRecorded();
+	
+	/**
+	 * @return The kept records from the oldest to the newest, one per line
+	 */
+	public String dump();
+	
+}
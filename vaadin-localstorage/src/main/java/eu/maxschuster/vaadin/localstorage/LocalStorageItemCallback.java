@@ -18,11 +18,13 @@
 
 package eu.maxschuster.vaadin.localstorage;
 
+import java.io.Serializable;
+
 /**
  * Callback for a {@link LocalStorage} item action
  * @author Max Schuster
  */
-public interface LocalStorageItemCallback {
+public interface LocalStorageItemCallback extends Serializable {
 
 	/**
 	 * Gets called on success
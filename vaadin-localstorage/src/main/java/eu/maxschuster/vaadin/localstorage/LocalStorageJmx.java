@@ -0,0 +1,78 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageJmx.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registers the monitoring MBeans with the platform MBean server
+ * @author Max Schuster
+ */
+final class LocalStorageJmx {
+	
+	/**
+	 * Domain of the object names
+	 */
+	private static final String DOMAIN = "eu.maxschuster.vaadin.localstorage";
+	
+	/**
+	 * Java logger
+	 */
+	private final static Logger LOGGER = Logger.getLogger(LocalStorageJmx.class.getName());
+	
+	private LocalStorageJmx() { }
+	
+	/**
+	 * Registers an MBean as
+	 * {@code eu.maxschuster.vaadin.localstorage:type=<type>,name=<name>}
+	 * @param mbean The MBean
+	 * @param type Type of the MBean
+	 * @param name Distinguishes MBeans of the same type
+	 * @return The object name
+	 * @throws JMException if the MBean can't be registered, e.g. because
+	 * the name is already in use
+	 */
+	static ObjectName register(Object mbean, String type, String name) throws JMException {
+		ObjectName objectName = new ObjectName(DOMAIN + ":type="
+				+ type + ",name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+		return objectName;
+	}
+	
+	/**
+	 * Unregisters an MBean, failures are logged
+	 * @param objectName The object name or null
+	 */
+	static void unregister(ObjectName objectName) {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			LOGGER.log(Level.FINE, "Can't unregister " + objectName, e);
+		}
+	}
+	
+}
@@ -0,0 +1,327 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageLimiter.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.Serializable;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Limits the number of {@link LocalStorage} operations with a callback that
+ * are in flight, i.e. sent to the client-side but not yet answered.
+ * <p>Use {@link LocalStorage#setLimiter(LocalStorageLimiter)} for a limit
+ * per {@link LocalStorage} instance and
+ * {@link LocalStorage#setApplicationLimiter(LocalStorageLimiter)} for a
+ * limit shared by all instances of a {@link com.vaadin.server.VaadinService}.
+ * The application limiter is registered as an MBean automatically, other
+ * limiters can be registered with {@link #registerMBean(String)}. Admitted operations that wait for the
+ * next response in their {@link LocalStoragePriority} lane count as in
+ * flight.</p>
+ * @author Max Schuster
+ */
+@SuppressWarnings("serial")
+public class LocalStorageLimiter implements LocalStorageLimiterMBean, Serializable {
+	
+	/**
+	 * What happens to an operation that exceeds the limit
+	 * @author Max Schuster
+	 */
+	public enum Policy {
+		
+		/**
+		 * Keep the operation in a bounded backlog and send it when an
+		 * operation in flight completes. Operations exceeding the backlog
+		 * get rejected.
+		 */
+		QUEUE,
+		
+		/**
+		 * Reject the operation by calling
+		 * {@link LocalStorageItemCallback#onError(String)}
+		 */
+		REJECT,
+		
+		/**
+		 * Block the calling thread until an operation in flight completes
+		 * or the timeout elapses, then reject the operation. Callbacks are
+		 * processed while the session is locked, so this is only useful
+		 * for threads that don't hold the lock.
+		 */
+		BLOCK
+	}
+	
+	/**
+	 * Maximum number of operations in flight
+	 */
+	private final int maxInFlight;
+	
+	/**
+	 * Policy for operations exceeding the limit
+	 */
+	private final Policy policy;
+	
+	/**
+	 * Maximum number of operations in the backlog
+	 */
+	private final int maxBacklog;
+	
+	/**
+	 * Maximum time to block in milliseconds
+	 */
+	private final long timeoutMillis;
+	
+	/*
+	 * Operations in flight and in a backlog are not restored after
+	 * deserialization, so neither are their counters.
+	 */
+	
+	private transient int inFlight = 0;
+	
+	private int peakInFlight = 0;
+	
+	private transient int backlog = 0;
+	
+	private long admitted = 0;
+	
+	private long rejected = 0;
+	
+	private long timedOut = 0;
+	
+	/**
+	 * Name of the registered MBean or null
+	 */
+	private transient ObjectName objectName = null;
+	
+	/**
+	 * @param maxInFlight Maximum number of operations in flight
+	 * @param policy Policy for operations exceeding the limit
+	 * @param maxBacklog Maximum number of operations in the backlog.
+	 * Only used by {@link Policy#QUEUE}.
+	 * @param timeoutMillis Maximum time to block in milliseconds.
+	 * Only used by {@link Policy#BLOCK}.
+	 */
+	public LocalStorageLimiter(int maxInFlight, Policy policy, int maxBacklog, long timeoutMillis) {
+		if (maxInFlight < 1 || maxBacklog < 0 || timeoutMillis < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (policy == null) {
+			throw new NullPointerException("policy");
+		}
+		this.maxInFlight = maxInFlight;
+		this.policy = policy;
+		this.maxBacklog = maxBacklog;
+		this.timeoutMillis = timeoutMillis;
+	}
+	
+	/**
+	 * @param maxInFlight Maximum number of operations in flight
+	 * @param maxBacklog Maximum number of operations in the backlog
+	 * @return A limiter with {@link Policy#QUEUE}
+	 */
+	public static LocalStorageLimiter queue(int maxInFlight, int maxBacklog) {
+		return new LocalStorageLimiter(maxInFlight, Policy.QUEUE, maxBacklog, 0);
+	}
+	
+	/**
+	 * @param maxInFlight Maximum number of operations in flight
+	 * @return A limiter with {@link Policy#REJECT}
+	 */
+	public static LocalStorageLimiter reject(int maxInFlight) {
+		return new LocalStorageLimiter(maxInFlight, Policy.REJECT, 0, 0);
+	}
+	
+	/**
+	 * @param maxInFlight Maximum number of operations in flight
+	 * @param timeoutMillis Maximum time to block in milliseconds
+	 * @return A limiter with {@link Policy#BLOCK}
+	 */
+	public static LocalStorageLimiter block(int maxInFlight, long timeoutMillis) {
+		return new LocalStorageLimiter(maxInFlight, Policy.BLOCK, 0, timeoutMillis);
+	}
+	
+	/**
+	 * Admits an operation if the limit isn't reached
+	 * @return The operation has been admitted
+	 */
+	synchronized boolean tryAcquire() {
+		if (inFlight >= maxInFlight) {
+			return false;
+		}
+		inFlight++;
+		admitted++;
+		if (inFlight > peakInFlight) {
+			peakInFlight = inFlight;
+		}
+		return true;
+	}
+	
+	/**
+	 * Admits an operation, waiting up to {@link #getTimeoutMillis()}
+	 * @return The operation has been admitted
+	 * @throws InterruptedException
+	 */
+	synchronized boolean acquire() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (!tryAcquire()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				timedOut++;
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+	
+	/**
+	 * Marks an admitted operation as completed
+	 */
+	synchronized void release() {
+		if (inFlight > 0) {
+			inFlight--;
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Reserves a place in the backlog
+	 * @return A place has been reserved
+	 */
+	synchronized boolean offerBacklog() {
+		if (backlog >= maxBacklog) {
+			return false;
+		}
+		backlog++;
+		return true;
+	}
+	
+	/**
+	 * Frees a place in the backlog
+	 */
+	synchronized void pollBacklog() {
+		if (backlog > 0) {
+			backlog--;
+		}
+	}
+	
+	/**
+	 * Counts a rejected operation
+	 */
+	synchronized void reject() {
+		rejected++;
+	}
+
+	/**
+	 * @return Policy for operations exceeding the limit
+	 */
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return Maximum number of operations in the backlog
+	 */
+	public int getMaxBacklog() {
+		return maxBacklog;
+	}
+
+	/**
+	 * @return Maximum time to block in milliseconds
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	@Override
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	@Override
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	@Override
+	public synchronized int getPeakInFlight() {
+		return peakInFlight;
+	}
+
+	@Override
+	public synchronized int getBacklog() {
+		return backlog;
+	}
+
+	@Override
+	public synchronized long getAdmitted() {
+		return admitted;
+	}
+
+	@Override
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	@Override
+	public synchronized long getTimedOut() {
+		return timedOut;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "LocalStorageLimiter [policy=" + policy + ", maxInFlight="
+				+ maxInFlight + ", inFlight=" + getInFlight()
+				+ ", backlog=" + getBacklog() + ", rejected=" + getRejected() + "]";
+	}
+	
+	/**
+	 * Registers this limiter with the platform MBean server as
+	 * {@code eu.maxschuster.vaadin.localstorage:type=LocalStorageLimiter,name=<name>}.
+	 * Replaces an earlier registration of this limiter.
+	 * @param name Distinguishes it from other registered limiters
+	 * @throws JMException if it can't be registered, e.g. because the name
+	 * is already in use
+	 */
+	public synchronized void registerMBean(String name) throws JMException {
+		ObjectName registered = LocalStorageJmx.register(this, "LocalStorageLimiter", name);
+		unregisterMBean();
+		objectName = registered;
+	}
+	
+	/**
+	 * Unregisters this limiter from the platform MBean server if it is
+	 * registered
+	 */
+	public synchronized void unregisterMBean() {
+		LocalStorageJmx.unregister(objectName);
+		objectName = null;
+	}
+	
+	/**
+	 * @return Name this limiter is registered under or null
+	 */
+	public synchronized ObjectName getObjectName() {
+		return objectName;
+	}
+	
+}
@@ -0,0 +1,63 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageLimiterMBean.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+/**
+ * Management interface of {@link LocalStorageLimiter}. Allows operators to
+ * watch the saturation of a limiter through JMX.
+ * @author Max Schuster
+ */
+public interface LocalStorageLimiterMBean {
+	
+	/**
+	 * @return Maximum number of operations in flight
+	 */
+	public int getMaxInFlight();
+	
+	/**
+	 * @return Number of operations currently in flight
+	 */
+	public int getInFlight();
+	
+	/**
+	 * @return Highest number of operations in flight so far
+	 */
+	public int getPeakInFlight();
+	
+	/**
+	 * @return Number of operations currently waiting in a backlog
+	 */
+	public int getBacklog();
+	
+	/**
+	 * @return Total number of admitted operations
+	 */
+	public long getAdmitted();
+	
+	/**
+	 * @return Total number of rejected operations, timed out ones included
+	 */
+	public long getRejected();
+	
+	/**
+	 * @return Total number of operations that timed out while blocking
+	 */
+	public long getTimedOut();
+	
+}
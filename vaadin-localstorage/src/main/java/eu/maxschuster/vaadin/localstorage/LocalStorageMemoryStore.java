@@ -0,0 +1,91 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageMemoryStore.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link LocalStorageStore} that keeps the entries in memory. The entries
+ * are lost when the JVM stops, so it is meant for tests and prototypes.
+ * <p>Share one instance between all sessions through a
+ * {@link LocalStorageStoreProvider}, e.g. by keeping it in a static
+ * field.</p>
+ * @author Max Schuster
+ */
+public class LocalStorageMemoryStore implements LocalStorageStore {
+	
+	/**
+	 * Entries by key by owner
+	 */
+	private final Map<String, Map<String, Entry>> owners =
+			new HashMap<String, Map<String, Entry>>();
+
+	/* (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.LocalStorageStore#load(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public synchronized List<Entry> load(String owner, String keyPrefix) {
+		List<Entry> result = new ArrayList<Entry>();
+		Map<String, Entry> entries = owners.get(owner);
+		if (entries != null) {
+			for (Entry entry : entries.values()) {
+				if (entry.getKey().startsWith(keyPrefix)) {
+					result.add(entry);
+				}
+			}
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.LocalStorageStore#write(java.lang.String, java.util.List)
+	 */
+	@Override
+	public synchronized List<Entry> write(String owner, List<Entry> changes) {
+		Map<String, Entry> entries = owners.get(owner);
+		if (entries == null) {
+			entries = new HashMap<String, Entry>();
+			owners.put(owner, entries);
+		}
+		return apply(entries, changes);
+	}
+	
+	/**
+	 * Applies changes whose version is greater than the stored version
+	 * @param entries Stored entries by key
+	 * @param changes The changes
+	 * @return The stored entries of the conflicting changes
+	 */
+	static List<Entry> apply(Map<String, Entry> entries, List<Entry> changes) {
+		List<Entry> conflicts = new ArrayList<Entry>(0);
+		for (Entry change : changes) {
+			Entry stored = entries.get(change.getKey());
+			if (stored != null && stored.getVersion() >= change.getVersion()) {
+				conflicts.add(stored);
+			} else {
+				entries.put(change.getKey(), change);
+			}
+		}
+		return conflicts;
+	}
+	
+}
@@ -0,0 +1,49 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStoragePriority.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+/**
+ * Priority of a {@link LocalStorage} operation. Operations get sent to the
+ * client-side before the response, the ones with a higher priority first.
+ * <p>By default reads are {@link #INTERACTIVE}, writes of single items are
+ * {@link #NORMAL} and bulk operations are {@link #BACKGROUND}. Use
+ * {@link LocalStorage#runWithPriority(LocalStoragePriority, Runnable)} to
+ * override the default.</p>
+ * @author Max Schuster
+ */
+public enum LocalStoragePriority {
+	
+	/**
+	 * A user interaction waits for the operation
+	 */
+	INTERACTIVE,
+	
+	/**
+	 * Regular operations
+	 */
+	NORMAL,
+	
+	/**
+	 * Bulk or background work. Only
+	 * {@link LocalStorage#getBackgroundBudget()} operations get sent per
+	 * response, the remaining ones get sent with the next round trips.
+	 */
+	BACKGROUND
+
+}
@@ -0,0 +1,45 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageQueryCallback.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.Serializable;
+import java.util.List;
+
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery;
+
+/**
+ * Callback for {@link LocalStorage#query(LocalStorageQuery, LocalStorageQueryCallback)}
+ * @author Max Schuster
+ */
+public interface LocalStorageQueryCallback extends Serializable {
+
+	/**
+	 * Gets called on success
+	 * @param items The matching items. Their data is null if the query
+	 * requested only the keys.
+	 */
+	public void onSuccess(List<LocalStorageItem> items);
+
+	/**
+	 * Gets called on error
+	 * @param keyPrefix Key prefix of the failed query
+	 */
+	public void onError(String keyPrefix);
+
+}
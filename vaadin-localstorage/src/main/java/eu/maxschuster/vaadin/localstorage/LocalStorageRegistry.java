@@ -0,0 +1,104 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageRegistry.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+
+/**
+ * The attached {@link LocalStorage} instances of a {@link VaadinSession}
+ * by {@link UI} and name. Kept as session attribute, so it lives and gets
+ * serialized with the session. Instances register on attach and unregister
+ * on detach. Requires the session lock.
+ * @author Max Schuster
+ */
+class LocalStorageRegistry implements Serializable {
+	
+	private static final long serialVersionUID = 4052291731357402637L;
+	
+	/**
+	 * Instances by name by {@link UI}
+	 */
+	private final Map<UI, Map<String, LocalStorage>> instances =
+			new HashMap<UI, Map<String, LocalStorage>>();
+	
+	/**
+	 * Gets the registry of the session
+	 * @param session The session
+	 * @param create Create the registry if the session doesn't have one
+	 * @return The registry or null
+	 */
+	public static LocalStorageRegistry get(VaadinSession session, boolean create) {
+		LocalStorageRegistry registry = session.getAttribute(LocalStorageRegistry.class);
+		if (registry == null && create) {
+			registry = new LocalStorageRegistry();
+			session.setAttribute(LocalStorageRegistry.class, registry);
+		}
+		return registry;
+	}
+	
+	/**
+	 * @param ui The {@link UI}
+	 * @param name Name of the instance
+	 * @return The instance or null
+	 */
+	public LocalStorage get(UI ui, String name) {
+		Map<String, LocalStorage> named = instances.get(ui);
+		return named != null ? named.get(name) : null;
+	}
+	
+	/**
+	 * @param ui The {@link UI}
+	 * @param localStorage The instance
+	 */
+	public void register(UI ui, LocalStorage localStorage) {
+		Map<String, LocalStorage> named = instances.get(ui);
+		if (named == null) {
+			named = new HashMap<String, LocalStorage>(2);
+			instances.put(ui, named);
+		}
+		named.put(localStorage.getName(), localStorage);
+	}
+	
+	/**
+	 * @param ui The {@link UI}
+	 * @param localStorage The instance
+	 */
+	public void unregister(UI ui, LocalStorage localStorage) {
+		Map<String, LocalStorage> named = instances.get(ui);
+		if (named != null && named.get(localStorage.getName()) == localStorage) {
+			named.remove(localStorage.getName());
+			if (named.isEmpty()) {
+				instances.remove(ui);
+			}
+		}
+	}
+	
+	/**
+	 * @return No instance is registered
+	 */
+	public boolean isEmpty() {
+		return instances.isEmpty();
+	}
+	
+}
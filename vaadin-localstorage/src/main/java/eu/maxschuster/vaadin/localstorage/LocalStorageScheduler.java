@@ -0,0 +1,312 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageScheduler.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Holds the operations of a {@link LocalStorage} waiting for the next
+ * response in one lane per {@link LocalStoragePriority}. Queued operations
+ * of a lower priority that have to be sent before a new one, e.g. a write
+ * of the same item, get its priority.
+ * <p>Not thread-safe, the owner synchronizes the access.</p>
+ * @author Max Schuster
+ * @param <E> Type of the scheduled operations
+ */
+class LocalStorageScheduler<E extends LocalStorageScheduler.Schedulable<E>> {
+	
+	/**
+	 * Orders entries by the time they got scheduled
+	 */
+	private static final Comparator<Entry<?>> BY_POSITION = new Comparator<Entry<?>>() {
+	
+		@Override
+		public int compare(Entry<?> o1, Entry<?> o2) {
+			return o1.position < o2.position ? -1 : (o1.position == o2.position ? 0 : 1);
+		}
+	
+	};
+	
+	/**
+	 * Scheduled entries by priority, ordered by position
+	 */
+	private final Map<LocalStoragePriority, TreeSet<Entry<E>>> lanes =
+			new EnumMap<LocalStoragePriority, TreeSet<Entry<E>>>(LocalStoragePriority.class);
+	
+	/**
+	 * Entries in the {@link #lanes} by the keys of the items they access.
+	 * Finds the entries that conflict with a new one without walking all
+	 * lanes.
+	 */
+	private final TreeMap<String, Set<Entry<E>>> byKey = new TreeMap<String, Set<Entry<E>>>();
+	
+	/**
+	 * Entries in the {@link #lanes} that access a key prefix or all items,
+	 * like queries, clears and restores
+	 */
+	private final Set<Entry<E>> ranges = new LinkedHashSet<Entry<E>>();
+	
+	/**
+	 * Number of scheduled operations, gives each one its position
+	 */
+	private long scheduled = 0;
+	
+	public LocalStorageScheduler() {
+		for (LocalStoragePriority priority : LocalStoragePriority.values()) {
+			lanes.put(priority, new TreeSet<Entry<E>>(BY_POSITION));
+		}
+	}
+	
+	/**
+	 * Adds an operation to the lane of the given priority and promotes
+	 * every queued operation of a lower lane that conflicts with it, or
+	 * with an operation promoted because of it.
+	 * @param operation The operation
+	 * @param priority Priority of the operation
+	 */
+	public void schedule(E operation, LocalStoragePriority priority) {
+		Entry<E> entry = new Entry<E>(operation, priority, scheduled++);
+		TreeSet<Entry<E>> lane = lanes.get(priority);
+		List<Entry<E>> promoted = new ArrayList<Entry<E>>();
+		promoted.add(entry);
+		for (int i = 0; i < promoted.size(); i++) {
+			Entry<E> later = promoted.get(i);
+			for (Entry<E> queued : getCandidates(later.operation)) {
+				if (queued.priority.compareTo(priority) > 0 && queued.position < later.position
+						&& queued.operation.conflictsWith(later.operation)) {
+					lanes.get(queued.priority).remove(queued);
+					queued.priority = priority;
+					lane.add(queued);
+					promoted.add(queued);
+				}
+			}
+		}
+		lane.add(entry);
+		index(entry);
+	}
+	
+	/**
+	 * Removes the operations to send with the next response, the ones with
+	 * a higher priority first
+	 * @param backgroundBudget Maximum number of
+	 * {@link LocalStoragePriority#BACKGROUND} operations to remove
+	 * @return The operations in the order they have to be sent
+	 */
+	public List<E> poll(int backgroundBudget) {
+		List<E> polled = new ArrayList<E>();
+		for (LocalStoragePriority priority : LocalStoragePriority.values()) {
+			TreeSet<Entry<E>> lane = lanes.get(priority);
+			int budget = priority == LocalStoragePriority.BACKGROUND ? backgroundBudget : lane.size();
+			while (!lane.isEmpty() && budget-- > 0) {
+				Entry<E> entry = lane.pollFirst();
+				unindex(entry);
+				polled.add(entry.operation);
+			}
+		}
+		return polled;
+	}
+	
+	/**
+	 * @param priority A priority
+	 * @return Operations are scheduled with the priority
+	 */
+	public boolean hasScheduled(LocalStoragePriority priority) {
+		return !lanes.get(priority).isEmpty();
+	}
+	
+	/**
+	 * @return All scheduled operations, the ones with a higher priority
+	 * first
+	 */
+	public List<E> getScheduled() {
+		List<E> operations = new ArrayList<E>();
+		for (TreeSet<Entry<E>> lane : lanes.values()) {
+			for (Entry<E> entry : lane) {
+				operations.add(entry.operation);
+			}
+		}
+		return operations;
+	}
+	
+	/**
+	 * Removes all scheduled operations
+	 */
+	public void clear() {
+		for (TreeSet<Entry<E>> lane : lanes.values()) {
+			lane.clear();
+		}
+		byKey.clear();
+		ranges.clear();
+	}
+	
+	/**
+	 * @param operation An operation
+	 * @return Scheduled entries that may access the same items. A copy,
+	 * so the lanes can be changed while iterating.
+	 */
+	private List<Entry<E>> getCandidates(E operation) {
+		List<Entry<E>> candidates = new ArrayList<Entry<E>>();
+		Collection<String> keys = operation.getKeys();
+		String key = operation.getKey();
+		if (keys == null && key == null) {
+			for (TreeSet<Entry<E>> lane : lanes.values()) {
+				candidates.addAll(lane);
+			}
+			return candidates;
+		}
+		candidates.addAll(ranges);
+		if (keys == null && operation.isRange()) {
+			for (Map.Entry<String, Set<Entry<E>>> e : byKey.tailMap(key).entrySet()) {
+				if (!e.getKey().startsWith(key)) {
+					break;
+				}
+				candidates.addAll(e.getValue());
+			}
+			return candidates;
+		}
+		if (keys == null) {
+			keys = Collections.singleton(key);
+		}
+		for (String k : keys) {
+			Set<Entry<E>> entries = byKey.get(k);
+			if (entries != null) {
+				candidates.addAll(entries);
+			}
+		}
+		return candidates;
+	}
+	
+	/**
+	 * Adds a scheduled entry to the index of the lanes
+	 * @param entry The entry
+	 */
+	private void index(Entry<E> entry) {
+		Collection<String> keys = entry.operation.getKeys();
+		String key = entry.operation.getKey();
+		if (keys == null && (key == null || entry.operation.isRange())) {
+			ranges.add(entry);
+			return;
+		}
+		if (keys == null) {
+			keys = Collections.singleton(key);
+		}
+		for (String k : keys) {
+			Set<Entry<E>> entries = byKey.get(k);
+			if (entries == null) {
+				entries = new LinkedHashSet<Entry<E>>();
+				byKey.put(k, entries);
+			}
+			entries.add(entry);
+		}
+	}
+	
+	/**
+	 * Removes an entry that left the lanes from the index
+	 * @param entry The entry
+	 */
+	private void unindex(Entry<E> entry) {
+		Collection<String> keys = entry.operation.getKeys();
+		String key = entry.operation.getKey();
+		if (keys == null && (key == null || entry.operation.isRange())) {
+			ranges.remove(entry);
+			return;
+		}
+		if (keys == null) {
+			keys = Collections.singleton(key);
+		}
+		for (String k : keys) {
+			Set<Entry<E>> entries = byKey.get(k);
+			if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+				byKey.remove(k);
+			}
+		}
+	}
+	
+	/**
+	 * An operation that can be scheduled
+	 * @author Max Schuster
+	 * @param <E> Type of the operations it can conflict with
+	 */
+	interface Schedulable<E> {
+	
+		/**
+		 * @return Key, key prefix if {@link #isRange()} or null if the
+		 * operation accesses all items
+		 */
+		String getKey();
+		
+		/**
+		 * @return Keys of the items this operation accesses or null if
+		 * it's described by {@link #getKey()}
+		 */
+		Collection<String> getKeys();
+		
+		/**
+		 * @return {@link #getKey()} is a key prefix
+		 */
+		boolean isRange();
+		
+		/**
+		 * @param later An operation scheduled after this one
+		 * @return The operations must not be reordered
+		 */
+		boolean conflictsWith(E later);
+	
+	}
+	
+	/**
+	 * A scheduled operation
+	 * @param <E> Type of the operation
+	 */
+	private static class Entry<E> {
+	
+		/**
+		 * The operation
+		 */
+		private final E operation;
+		
+		/**
+		 * Lane of the entry, raised when it gets promoted
+		 */
+		private LocalStoragePriority priority;
+		
+		/**
+		 * Position in the order the operations got scheduled
+		 */
+		private final long position;
+		
+		public Entry(E operation, LocalStoragePriority priority, long position) {
+			this.operation = operation;
+			this.priority = priority;
+			this.position = position;
+		}
+	
+	}
+
+}
@@ -0,0 +1,44 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageSnapshotCallback.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Callback for {@link LocalStorage#snapshot(String, OutputStream, LocalStorageSnapshotCallback)}
+ * and {@link LocalStorage#restore(InputStream, LocalStorageSnapshotCallback)}
+ * @author Max Schuster
+ */
+public interface LocalStorageSnapshotCallback extends Serializable {
+
+	/**
+	 * Gets called on success
+	 * @param bytes Size of the transferred snapshot in bytes
+	 */
+	public void onSuccess(long bytes);
+
+	/**
+	 * Gets called on error, e.g. when localStorage is not supported, the
+	 * stream failed or the snapshot is invalid
+	 */
+	public void onError();
+
+}
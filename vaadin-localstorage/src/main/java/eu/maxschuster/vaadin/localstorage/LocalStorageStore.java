@@ -0,0 +1,130 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageStore.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Persistent server-side copy of the items of each user, used by
+ * {@link LocalStorageSync}.
+ * <p>Every item has a version. A change only gets applied if its version
+ * is greater than the stored version of the item, otherwise it conflicts
+ * with a change of another device. Removed items are kept as entries
+ * without data, so their version doesn't get lost.</p>
+ * <p>Implementations have to be thread-safe. A store isn't serialized with
+ * the sessions, all sessions share it through a
+ * {@link LocalStorageStoreProvider}.</p>
+ * @author Max Schuster
+ * @see LocalStorageMemoryStore
+ * @see LocalStorageFileStore
+ */
+public interface LocalStorageStore {
+	
+	/**
+	 * Loads the entries of a user
+	 * @param owner Identifies the user
+	 * @param keyPrefix Only entries whose key starts with the prefix are
+	 * loaded
+	 * @return The entries, removed items included
+	 * @throws IOException
+	 */
+	public List<Entry> load(String owner, String keyPrefix) throws IOException;
+	
+	/**
+	 * Applies changes whose version is greater than the stored version
+	 * @param owner Identifies the user
+	 * @param changes The changes. Contains each key at most once.
+	 * @return The stored entries of the conflicting changes. Their changes
+	 * have not been applied.
+	 * @throws IOException
+	 */
+	public List<Entry> write(String owner, List<Entry> changes) throws IOException;
+	
+	/**
+	 * Version of an items data
+	 * @author Max Schuster
+	 */
+	public static class Entry implements Serializable {
+		
+		private static final long serialVersionUID = -6018307779416423307L;
+
+		/**
+		 * Items key
+		 */
+		private final String key;
+		
+		/**
+		 * Items data or null if the item has been removed
+		 */
+		private final String data;
+		
+		/**
+		 * Version of the data
+		 */
+		private final long version;
+		
+		/**
+		 * @param key Items key
+		 * @param data Items data or null if the item has been removed
+		 * @param version Version of the data
+		 */
+		public Entry(String key, String data, long version) {
+			if (key == null) {
+				throw new NullPointerException();
+			}
+			this.key = key;
+			this.data = data;
+			this.version = version;
+		}
+
+		/**
+		 * @return Items key
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return Items data or null if the item has been removed
+		 */
+		public String getData() {
+			return data;
+		}
+
+		/**
+		 * @return Version of the data
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Entry [key=" + key + ", version=" + version
+					+ ", removed=" + (data == null) + "]";
+		}
+		
+	}
+	
+}
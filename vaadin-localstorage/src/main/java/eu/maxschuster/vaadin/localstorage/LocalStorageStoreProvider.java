@@ -0,0 +1,38 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageStoreProvider.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.Serializable;
+
+/**
+ * Looks up the {@link LocalStorageStore} of a {@link LocalStorageSync}.
+ * <p>The provider gets serialized with the session, the store doesn't. It
+ * has to resolve the one store shared by all sessions, e.g. from a static
+ * field, the servlet context or JNDI, so a deserialized session keeps
+ * writing to the same store instead of a copy.</p>
+ * @author Max Schuster
+ */
+public interface LocalStorageStoreProvider extends Serializable {
+	
+	/**
+	 * @return The shared store
+	 */
+	public LocalStorageStore getStore();
+	
+}
@@ -0,0 +1,512 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageSync.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+
+import eu.maxschuster.vaadin.localstorage.LocalStorageStore.Entry;
+
+/**
+ * Mirrors the items written through a {@link LocalStorage} instance into a
+ * {@link LocalStorageStore}, so they can be restored on another device.
+ * <p>Changes are written behind: they are coalesced per key and written
+ * in one batch per server response, optionally by an {@link Executor}.
+ * Every item has a version. A change made on a device that didn't know the
+ * latest version of an item conflicts, the stored data wins and gets
+ * written to the client-side.</p>
+ * <p>Only changes made through the {@link LocalStorage} instance are
+ * synchronized, not changes made by client-side scripts. A change gets
+ * recorded when the client-side reports it as stored, so rejected or
+ * failed writes never reach the store.</p>
+ * <p>The store isn't serialized with the session. To keep writing to the
+ * same store after the session got deserialized, e.g. on another cluster
+ * node, create the sync with a {@link LocalStorageStoreProvider}.</p>
+ * @author Max Schuster
+ * @see LocalStorage#setSync(LocalStorageSync)
+ */
+public class LocalStorageSync implements Serializable {
+	
+	private static final long serialVersionUID = 8260557924155497002L;
+	
+	/**
+	 * Java logger
+	 */
+	private final static Logger LOGGER = Logger.getLogger(LocalStorageSync.class.getName());
+	
+	/**
+	 * Looks up the {@link #store} or null if the sync can't be serialized
+	 */
+	private final LocalStorageStoreProvider provider;
+	
+	/**
+	 * The store. Null until looked up by the {@link #provider}.
+	 */
+	private transient LocalStorageStore store;
+	
+	/**
+	 * Identifies the user in the store
+	 */
+	private final String owner;
+	
+	/**
+	 * Only items whose key starts with this prefix are synchronized
+	 */
+	private final String keyPrefix;
+	
+	/**
+	 * Writes the batches or null to write them synchronously
+	 */
+	private transient Executor executor = null;
+	
+	/**
+	 * The synchronized instance
+	 */
+	private LocalStorage localStorage = null;
+	
+	/**
+	 * Known stored version by key. Null until loaded.
+	 */
+	private Map<String, Long> versions = null;
+	
+	/**
+	 * Changed data by key in order of the first change. Null data marks a
+	 * removed item.
+	 */
+	private LinkedHashMap<String, String> pending = new LinkedHashMap<String, String>();
+	
+	/**
+	 * The items have been cleared before the {@link #pending} changes
+	 */
+	private boolean pendingClear = false;
+	
+	/**
+	 * A batch is being written by the {@link #executor}
+	 */
+	private transient boolean writing = false;
+	
+	/**
+	 * Creates a sync that can't be serialized
+	 * @param store The store
+	 * @param owner Identifies the user in the store
+	 */
+	public LocalStorageSync(LocalStorageStore store, String owner) {
+		this(store, owner, "");
+	}
+	
+	/**
+	 * Creates a sync that can't be serialized
+	 * @param store The store
+	 * @param owner Identifies the user in the store
+	 * @param keyPrefix Only items whose key starts with this prefix are
+	 * synchronized
+	 */
+	public LocalStorageSync(LocalStorageStore store, String owner, String keyPrefix) {
+		this(null, store, owner, keyPrefix);
+	}
+	
+	/**
+	 * @param provider Looks up the store
+	 * @param owner Identifies the user in the store
+	 */
+	public LocalStorageSync(LocalStorageStoreProvider provider, String owner) {
+		this(provider, owner, "");
+	}
+	
+	/**
+	 * @param provider Looks up the store
+	 * @param owner Identifies the user in the store
+	 * @param keyPrefix Only items whose key starts with this prefix are
+	 * synchronized
+	 */
+	public LocalStorageSync(LocalStorageStoreProvider provider, String owner, String keyPrefix) {
+		this(provider, null, owner, keyPrefix);
+		if (provider == null) {
+			throw new NullPointerException();
+		}
+	}
+	
+	/**
+	 * @param provider Looks up the store or null
+	 * @param store The store or null
+	 * @param owner Identifies the user in the store
+	 * @param keyPrefix Only items whose key starts with this prefix are
+	 * synchronized
+	 */
+	private LocalStorageSync(LocalStorageStoreProvider provider, LocalStorageStore store,
+			String owner, String keyPrefix) {
+		if ((provider == null && store == null) || owner == null || keyPrefix == null) {
+			throw new NullPointerException();
+		}
+		this.provider = provider;
+		this.store = store;
+		this.owner = owner;
+		this.keyPrefix = keyPrefix;
+	}
+	
+	/**
+	 * Writes all stored items to the client-side in one transfer. The stored
+	 * data replaces pending changes of the same items. Meant for a fresh
+	 * client, e.g. after the user signed in on a new device.
+	 * @param callback A callback or null. Gets called once for all items.
+	 */
+	public void restore(LocalStorageItemCallback callback) {
+		LocalStorage target = getBoundLocalStorage();
+		List<Entry> entries;
+		try {
+			entries = getStore().load(owner, keyPrefix);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Can't load the items of \"" + owner + "\"", e);
+			if (callback != null) {
+				callback.onError(null);
+			}
+			return;
+		}
+		if (versions == null) {
+			versions = new HashMap<String, Long>();
+		}
+		Map<String, String> items = new LinkedHashMap<String, String>();
+		for (Entry entry : entries) {
+			versions.put(entry.getKey(), entry.getVersion());
+			pending.remove(entry.getKey());
+			items.put(entry.getKey(), entry.getData());
+		}
+		target.writeItems(items, callback, false);
+	}
+	
+	/**
+	 * Writes the pending changes. Gets called before every server response.
+	 * Does nothing while the previous batch is still being written.
+	 */
+	public void flush() {
+		if ((pending.isEmpty() && !pendingClear) || writing) {
+			return;
+		}
+		final Batch batch = new Batch(getStore(), pending, pendingClear,
+				versions != null ? new HashMap<String, Long>(versions) : null);
+		pending = new LinkedHashMap<String, String>();
+		pendingClear = false;
+		if (executor == null) {
+			batch.run();
+			complete(batch);
+			return;
+		}
+		writing = true;
+		UI ui = localStorage != null ? localStorage.getUI() : null;
+		final VaadinSession session = ui != null ? ui.getSession() : null;
+		executor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				batch.run();
+				Runnable completion = new Runnable() {
+					
+					@Override
+					public void run() {
+						writing = false;
+						complete(batch);
+					}
+					
+				};
+				if (session != null) {
+					session.access(completion);
+				} else {
+					completion.run();
+				}
+			}
+			
+		});
+	}
+	
+	/**
+	 * @return Number of items with pending changes
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+	
+	/**
+	 * @return The store
+	 * @throws IllegalStateException if the provider returned no store
+	 */
+	public LocalStorageStore getStore() {
+		if (store == null) {
+			store = provider.getStore();
+			if (store == null) {
+				throw new IllegalStateException("No store provided by " + provider);
+			}
+		}
+		return store;
+	}
+	
+	/**
+	 * @return Looks up the store or null if the sync can't be serialized
+	 */
+	public LocalStorageStoreProvider getProvider() {
+		return provider;
+	}
+	
+	/**
+	 * @return Identifies the user in the store
+	 */
+	public String getOwner() {
+		return owner;
+	}
+	
+	/**
+	 * @return Only items whose key starts with this prefix are synchronized
+	 */
+	public String getKeyPrefix() {
+		return keyPrefix;
+	}
+	
+	/**
+	 * @return Writes the batches or null if they are written synchronously
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Batches written by an executor are completed with
+	 * {@link VaadinSession#access(Runnable)}. The executor isn't serialized.
+	 * @param executor Writes the batches or null to write them
+	 * synchronously
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * @param localStorage The synchronized instance or null
+	 */
+	void bind(LocalStorage localStorage) {
+		if (localStorage != null && this.localStorage != null
+				&& this.localStorage != localStorage) {
+			throw new IllegalStateException("Already synchronizing another LocalStorage");
+		}
+		this.localStorage = localStorage;
+	}
+	
+	/**
+	 * Records a change
+	 * @param key Items key
+	 * @param data Items new data or null if it has been removed
+	 */
+	void onItemChanged(String key, String data) {
+		if (key.startsWith(keyPrefix)) {
+			pending.put(key, data);
+		}
+	}
+	
+	/**
+	 * Records the removal of all items
+	 */
+	void onClear() {
+		pending.clear();
+		pendingClear = true;
+	}
+	
+	/**
+	 * Without a {@link #provider} the store would get lost
+	 * @param out The stream
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		if (provider == null) {
+			throw new NotSerializableException(LocalStorageSync.class.getName()
+					+ " without a " + LocalStorageStoreProvider.class.getSimpleName());
+		}
+		out.defaultWriteObject();
+	}
+	
+	/**
+	 * @return The synchronized instance
+	 */
+	private LocalStorage getBoundLocalStorage() {
+		if (localStorage == null) {
+			throw new IllegalStateException("Not synchronizing a LocalStorage");
+		}
+		return localStorage;
+	}
+	
+	/**
+	 * Applies the result of a written batch
+	 * @param batch The batch
+	 */
+	private void complete(Batch batch) {
+		if (versions == null && batch.known != null) {
+			versions = new HashMap<String, Long>(batch.known);
+		}
+		if (batch.error != null) {
+			LOGGER.log(Level.WARNING, "Can't write the items of \"" + owner
+					+ "\", retrying with the next response", batch.error);
+			if (!pendingClear) {
+				// Newer changes replace the failed ones
+				LinkedHashMap<String, String> retry = new LinkedHashMap<String, String>(batch.items);
+				retry.putAll(pending);
+				pending = retry;
+				pendingClear = batch.cleared;
+			}
+			return;
+		}
+		Map<String, String> rejected = new LinkedHashMap<String, String>();
+		for (Entry change : batch.changes) {
+			updateVersion(change.getKey(), change.getVersion());
+		}
+		for (Entry stored : batch.conflicts) {
+			updateVersion(stored.getKey(), stored.getVersion());
+			String data = stored.getData();
+			String written = batch.items.get(stored.getKey());
+			boolean same = data == null ? written == null : data.equals(written);
+			// A newer pending change overrides the stored data anyway
+			if (!same && !pending.containsKey(stored.getKey())) {
+				rejected.put(stored.getKey(), data);
+			}
+		}
+		if (!rejected.isEmpty() && localStorage != null) {
+			LOGGER.fine(rejected.size() + " conflicting changes of \"" + owner
+					+ "\" replaced by the stored data");
+			localStorage.writeItems(rejected, null, false);
+		}
+	}
+	
+	/**
+	 * @param key Items key
+	 * @param version Stored version of the item
+	 */
+	private void updateVersion(String key, long version) {
+		Long known = versions.get(key);
+		if (known == null || known < version) {
+			versions.put(key, version);
+		}
+	}
+	
+	/**
+	 * Changes written at once
+	 * @author Max Schuster
+	 */
+	private class Batch implements Runnable {
+		
+		/**
+		 * The store
+		 */
+		private final LocalStorageStore store;
+		
+		/**
+		 * Changed data by key
+		 */
+		private final Map<String, String> items;
+		
+		/**
+		 * The items have been cleared before the changes
+		 */
+		private final boolean cleared;
+		
+		/**
+		 * Known stored version by key. Null until loaded.
+		 */
+		private Map<String, Long> known;
+		
+		/**
+		 * The written changes
+		 */
+		private final List<Entry> changes = new ArrayList<Entry>();
+		
+		/**
+		 * Stored entries of the conflicting changes
+		 */
+		private List<Entry> conflicts = null;
+		
+		/**
+		 * Error of the store or null
+		 */
+		private IOException error = null;
+		
+		/**
+		 * @param store The store
+		 * @param items Changed data by key
+		 * @param cleared The items have been cleared before the changes
+		 * @param known Known stored version by key or null
+		 */
+		public Batch(LocalStorageStore store, Map<String, String> items, boolean cleared,
+				Map<String, Long> known) {
+			this.store = store;
+			this.items = items;
+			this.cleared = cleared;
+			this.known = known;
+		}
+		
+		/**
+		 * Writes the changes to the store
+		 */
+		@Override
+		public void run() {
+			try {
+				List<Entry> stored = null;
+				if (known == null || cleared) {
+					stored = store.load(owner, keyPrefix);
+				}
+				if (known == null) {
+					known = new HashMap<String, Long>();
+					for (Entry entry : stored) {
+						known.put(entry.getKey(), entry.getVersion());
+					}
+				}
+				for (Map.Entry<String, String> item : items.entrySet()) {
+					changes.add(new Entry(item.getKey(), item.getValue(), next(item.getKey())));
+				}
+				if (cleared) {
+					for (Entry entry : stored) {
+						if (entry.getData() != null && !items.containsKey(entry.getKey())) {
+							changes.add(new Entry(entry.getKey(), null, next(entry.getKey())));
+						}
+					}
+				}
+				conflicts = store.write(owner, changes);
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		
+		/**
+		 * @param key Items key
+		 * @return Version of the next change of the item
+		 */
+		private long next(String key) {
+			Long version = known.get(key);
+			return version != null ? version + 1 : 1;
+		}
+		
+	}
+	
+}
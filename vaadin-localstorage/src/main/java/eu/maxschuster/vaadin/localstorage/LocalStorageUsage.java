@@ -0,0 +1,163 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageUsage.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Usage of the browsers localStorage as reported by the client-side.
+ * <p>Sizes are in bytes of UTF-16, the encoding browsers use to store
+ * keys and data. Browsers don't report their quota, the quota is estimated.
+ * The estimate gets lowered when a deferred write exceeds the quota.</p>
+ * <p>The totals cover all items of the origin, the quota is shared by all
+ * named {@link LocalStorage} instances. The prefixes are within the key
+ * namespace of the instance that requested the usage.</p>
+ * @author Max Schuster
+ * @see LocalStorage#getUsage(LocalStorageUsageCallback, String...)
+ */
+public class LocalStorageUsage implements Serializable {
+
+	private static final long serialVersionUID = -2581733063478296402L;
+
+	/**
+	 * Bytes used by all items
+	 */
+	private final int usedBytes;
+
+	/**
+	 * Number of all items
+	 */
+	private final int itemCount;
+
+	/**
+	 * Estimated quota in bytes
+	 */
+	private final int estimatedQuotaBytes;
+
+	/**
+	 * The requested key prefixes
+	 */
+	private final List<String> prefixes;
+
+	/**
+	 * Bytes used by the items of each prefix
+	 */
+	private final List<Integer> prefixBytes;
+
+	/**
+	 * Number of items of each prefix
+	 */
+	private final List<Integer> prefixItemCounts;
+
+	/**
+	 * @param usedBytes Bytes used by all items
+	 * @param itemCount Number of all items
+	 * @param estimatedQuotaBytes Estimated quota in bytes
+	 * @param prefixes The requested key prefixes
+	 * @param prefixBytes Bytes used by the items of each prefix
+	 * @param prefixItemCounts Number of items of each prefix
+	 */
+	public LocalStorageUsage(int usedBytes, int itemCount, int estimatedQuotaBytes,
+			List<String> prefixes, List<Integer> prefixBytes, List<Integer> prefixItemCounts) {
+		this.usedBytes = usedBytes;
+		this.itemCount = itemCount;
+		this.estimatedQuotaBytes = estimatedQuotaBytes;
+		this.prefixes = Collections.unmodifiableList(new ArrayList<String>(prefixes));
+		this.prefixBytes = new ArrayList<Integer>(prefixBytes);
+		this.prefixItemCounts = new ArrayList<Integer>(prefixItemCounts);
+	}
+
+	/**
+	 * @return Bytes used by all items
+	 */
+	public int getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * @return Number of all items
+	 */
+	public int getItemCount() {
+		return itemCount;
+	}
+
+	/**
+	 * @return Estimated quota in bytes
+	 */
+	public int getEstimatedQuotaBytes() {
+		return estimatedQuotaBytes;
+	}
+
+	/**
+	 * @return Estimated number of bytes that can still be written
+	 */
+	public int getEstimatedRemainingBytes() {
+		return Math.max(0, estimatedQuotaBytes - usedBytes);
+	}
+
+	/**
+	 * @return The requested key prefixes
+	 */
+	public List<String> getPrefixes() {
+		return prefixes;
+	}
+
+	/**
+	 * @param prefix A requested key prefix
+	 * @return Bytes used by the items whose key starts with the prefix
+	 */
+	public int getUsedBytes(String prefix) {
+		return prefixBytes.get(indexOf(prefix));
+	}
+
+	/**
+	 * @param prefix A requested key prefix
+	 * @return Number of items whose key starts with the prefix
+	 */
+	public int getItemCount(String prefix) {
+		return prefixItemCounts.get(indexOf(prefix));
+	}
+
+	/**
+	 * @param prefix A requested key prefix
+	 * @return Index of the prefix
+	 */
+	private int indexOf(String prefix) {
+		int index = prefixes.indexOf(prefix);
+		if (index < 0) {
+			throw new IllegalArgumentException("Prefix \"" + prefix + "\" has not been requested");
+		}
+		return index;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "LocalStorageUsage [usedBytes=" + usedBytes + ", itemCount="
+				+ itemCount + ", estimatedQuotaBytes=" + estimatedQuotaBytes
+				+ ", prefixes=" + prefixes + ", prefixBytes=" + prefixBytes
+				+ ", prefixItemCounts=" + prefixItemCounts + "]";
+	}
+
+}
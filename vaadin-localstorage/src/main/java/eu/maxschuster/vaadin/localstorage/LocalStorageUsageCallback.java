@@ -0,0 +1,40 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageUsageCallback.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.Serializable;
+
+/**
+ * Callback for {@link LocalStorage#getUsage(LocalStorageUsageCallback, String...)}
+ * @author Max Schuster
+ */
+public interface LocalStorageUsageCallback extends Serializable {
+
+	/**
+	 * Gets called on success
+	 * @param usage The usage of the localStorage
+	 */
+	public void onSuccess(LocalStorageUsage usage);
+
+	/**
+	 * Gets called on error, e.g. when localStorage is not supported
+	 */
+	public void onError();
+
+}
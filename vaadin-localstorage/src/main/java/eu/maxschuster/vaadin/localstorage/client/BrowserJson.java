@@ -0,0 +1,78 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.BrowserJson.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import com.google.gwt.json.client.JSONArray;
+import com.google.gwt.json.client.JSONBoolean;
+import com.google.gwt.json.client.JSONNumber;
+import com.google.gwt.json.client.JSONObject;
+import com.google.gwt.json.client.JSONParser;
+import com.google.gwt.json.client.JSONString;
+import com.google.gwt.json.client.JSONValue;
+
+/**
+ * {@link LocalStorageJson} that uses the browsers JSON parser
+ * @author Max Schuster
+ * @see JSONParser#parseStrict(String)
+ */
+public class BrowserJson implements LocalStorageJson {
+
+	@Override
+	public Object parse(String json) {
+		return JSONParser.parseStrict(json);
+	}
+
+	@Override
+	public Object get(Object value, String segment) {
+		JSONObject object = ((JSONValue) value).isObject();
+		if (object != null) {
+			return object.containsKey(segment) ? object.get(segment) : null;
+		}
+		JSONArray array = ((JSONValue) value).isArray();
+		if (array != null) {
+			int index = -1;
+			try {
+				index = Integer.parseInt(segment);
+			} catch (NumberFormatException e) {
+				// Not an array index
+			}
+			return index > -1 && index < array.size() ? array.get(index) : null;
+		}
+		return null;
+	}
+
+	@Override
+	public String canonical(Object value) {
+		JSONValue json = (JSONValue) value;
+		JSONNumber number = json.isNumber();
+		if (number != null) {
+			return "n" + number.doubleValue();
+		}
+		JSONString string = json.isString();
+		if (string != null) {
+			return "s" + string.stringValue();
+		}
+		JSONBoolean bool = json.isBoolean();
+		if (bool != null) {
+			return "b" + bool.booleanValue();
+		}
+		return json.isNull() != null ? "z" : null;
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.BrowserStorageBackend.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import com.google.gwt.storage.client.Storage;
+
+/**
+ * {@link LocalStorageBackend} that uses the browsers localStorage
+ * @author Max Schuster
+ * @see Storage#getLocalStorageIfSupported()
+ */
+public class BrowserStorageBackend implements LocalStorageBackend {
+
+	@Override
+	public boolean isSupported() {
+		return Storage.isLocalStorageSupported();
+	}
+
+	@Override
+	public String getItem(String key) {
+		return storage().getItem(key);
+	}
+
+	@Override
+	public void setItem(String key, String data) {
+		storage().setItem(key, data);
+	}
+
+	@Override
+	public void removeItem(String key) {
+		storage().removeItem(key);
+	}
+
+	@Override
+	public void clear() {
+		storage().clear();
+	}
+
+	@Override
+	public int getLength() {
+		return storage().getLength();
+	}
+
+	@Override
+	public String key(int index) {
+		return storage().key(index);
+	}
+	
+	/**
+	 * @return The localStorage
+	 */
+	private Storage storage() {
+		return Storage.getLocalStorageIfSupported();
+	}
+
+}
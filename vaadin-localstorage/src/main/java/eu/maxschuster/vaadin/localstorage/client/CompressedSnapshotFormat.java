@@ -0,0 +1,42 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.CompressedSnapshotFormat.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.maxschuster.vaadin.localstorage.client;
+
+import java.util.List;
+
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageSnapshotCodec;
+
+/**
+ * {@link LocalStorageSnapshotFormat} of the {@link LocalStorageSnapshotCodec},
+ * the format the server-side reads and writes
+ * @author Max Schuster
+ */
+public class CompressedSnapshotFormat implements LocalStorageSnapshotFormat {
+
+	@Override
+	public byte[] encode(String keyPrefix, List<String> keys, List<String> data) {
+		return LocalStorageSnapshotCodec.encode(keyPrefix, keys, data);
+	}
+
+	@Override
+	public String decode(byte[] bytes, List<String> keys, List<String> data)
+			throws IllegalArgumentException {
+		return LocalStorageSnapshotCodec.decode(bytes, keys, data);
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.LocalStorageBackend.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import com.google.gwt.storage.client.Storage;
+
+/**
+ * Storage the client-side operates on. Mirrors the methods of
+ * {@link Storage} that are used, so the client-side logic can run against
+ * the browsers localStorage as well as on a plain JVM.
+ * @author Max Schuster
+ * @see BrowserStorageBackend
+ * @see MemoryStorageBackend
+ */
+public interface LocalStorageBackend {
+	
+	/**
+	 * @return The storage is available
+	 */
+	public boolean isSupported();
+	
+	/**
+	 * @param key Items key
+	 * @return Items data or null if the item doesn't exist
+	 */
+	public String getItem(String key);
+	
+	/**
+	 * @param key Items key
+	 * @param data Items data
+	 * @throws RuntimeException if the quota is exceeded
+	 */
+	public void setItem(String key, String data);
+	
+	/**
+	 * @param key Items key
+	 */
+	public void removeItem(String key);
+	
+	/**
+	 * Removes all items
+	 */
+	public void clear();
+	
+	/**
+	 * @return Number of items
+	 */
+	public int getLength();
+	
+	/**
+	 * @param index Index of the item
+	 * @return Key of the item at the index
+	 */
+	public String key(int index);
+
+}
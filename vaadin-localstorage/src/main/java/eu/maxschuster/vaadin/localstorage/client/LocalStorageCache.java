@@ -0,0 +1,197 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.LocalStorageCache.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageHash;
+
+/**
+ * Read-through cache of recently accessed items of a {@link LocalStorageBackend}.
+ * <p>Writes have to go through the cache. Changes made by other browser
+ * windows have to be reported with {@link #onStorageChange(String, String)}.
+ * Missing items are cached as well.</p>
+ * @author Max Schuster
+ */
+public class LocalStorageCache {
+	
+	/**
+	 * Maximum number of cached items. 0 disables the cache.
+	 */
+	private int maxSize;
+	
+	/**
+	 * Cached entries in access order
+	 */
+	@SuppressWarnings("serial")
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > maxSize;
+		}
+		
+	};
+	
+	/**
+	 * @param maxSize Maximum number of cached items. 0 disables the cache.
+	 */
+	public LocalStorageCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Gets the items data
+	 * @param storage The storage
+	 * @param key Items key
+	 * @return Items data
+	 */
+	public String getItem(LocalStorageBackend storage, String key) {
+		return getEntry(storage, key).data;
+	}
+	
+	/**
+	 * Gets the {@link LocalStorageHash} of the items data
+	 * @param storage The storage
+	 * @param key Items key
+	 * @return The hash of the items data
+	 */
+	public String getHash(LocalStorageBackend storage, String key) {
+		Entry entry = getEntry(storage, key);
+		if (entry.hash == null) {
+			entry.hash = LocalStorageHash.hash(entry.data);
+		}
+		return entry.hash;
+	}
+	
+	/**
+	 * Sets the items data
+	 * @param storage The storage
+	 * @param key Items key
+	 * @param data Items data. If data is null the item will get removed.
+	 */
+	public void setItem(LocalStorageBackend storage, String key, String data) {
+		// Forget the old data first, the write may fail
+		entries.remove(key);
+		if (data != null) {
+			storage.setItem(key, data);
+		} else {
+			storage.removeItem(key);
+		}
+		put(key, data);
+	}
+	
+	/**
+	 * Clears the storage
+	 * @param storage The storage
+	 */
+	public void clear(LocalStorageBackend storage) {
+		entries.clear();
+		storage.clear();
+	}
+	
+	/**
+	 * Applies a change made by another browser window
+	 * @param key Items key or null if the storage has been cleared
+	 * @param newValue Items new data or null if it has been removed
+	 */
+	public void onStorageChange(String key, String newValue) {
+		if (key == null) {
+			entries.clear();
+		} else if (entries.containsKey(key)) {
+			put(key, newValue);
+		}
+	}
+	
+	/**
+	 * Removes all cached items
+	 */
+	public void invalidateAll() {
+		entries.clear();
+	}
+	
+	/**
+	 * @param maxSize Maximum number of cached items. 0 disables the cache.
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		if (maxSize <= 0) {
+			entries.clear();
+		} else {
+			while (entries.size() > maxSize) {
+				entries.remove(entries.keySet().iterator().next());
+			}
+		}
+	}
+	
+	/**
+	 * Gets the cached entry or reads it from the storage
+	 * @param storage The storage
+	 * @param key Items key
+	 * @return The entry
+	 */
+	private Entry getEntry(LocalStorageBackend storage, String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = put(key, storage.getItem(key));
+		}
+		return entry;
+	}
+	
+	/**
+	 * Caches the items data if the cache is enabled
+	 * @param key Items key
+	 * @param data Items data
+	 * @return The new entry
+	 */
+	private Entry put(String key, String data) {
+		Entry entry = new Entry(data);
+		if (maxSize > 0) {
+			entries.put(key, entry);
+		}
+		return entry;
+	}
+	
+	/**
+	 * Cached data of an item
+	 * @author Max Schuster
+	 */
+	private static class Entry {
+		
+		/**
+		 * Items data. Null if the item doesn't exist.
+		 */
+		private final String data;
+		
+		/**
+		 * Lazily computed {@link LocalStorageHash} of the data
+		 */
+		private String hash;
+		
+		/**
+		 * @param data Items data
+		 */
+		public Entry(String data) {
+			this.data = data;
+		}
+		
+	}
+	
+}
@@ -18,9 +18,16 @@
 
 package eu.maxschuster.vaadin.localstorage.client;
 
+import java.util.List;
+
 import com.google.gwt.storage.client.Storage;
 import com.vaadin.shared.communication.ClientRpc;
 
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageBinaryCodec;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageHash;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageSnapshotCodec;
+
 /**
  * Defines client side methods that can get invoked from the server side. 
  * @author Max Schuster
@@ -31,16 +38,30 @@ public interface LocalStorageClientRpc extends ClientRpc {
 	 * Trigger {@link Storage#getItem(String)} on client-side
 	 * @param key Items key
 	 * @param callback Callback id. If &lt; 0 no callback will get triggered.
+	 * @param hash {@link LocalStorageHash} of the data known by the server
+	 * side. If the stored data has the same hash it isn't sent back.
+	 * May be null.
 	 */
-	public void getItem(String key, int callback);
+	public void getItem(String key, int callback, String hash);
 	
 	/**
 	 * Trigger {@link Storage#setItem(String, String)} on client-side
 	 * @param key Items key
 	 * @param data Items data. If data is null the item will get removed.
 	 * @param callback Callback id. If &lt; 0 no callback will get triggered.
+	 * @param fetchOldData Read the old data before it gets overwritten and
+	 * pass it to the callback
 	 */
-	public void setItem(String key, String data, int callback);
+	public void setItem(String key, String data, int callback, boolean fetchOldData);
+	
+	/**
+	 * Writes several items at once on client-side
+	 * @param keys Items keys
+	 * @param data Items data. If an items data is null the item will get
+	 * removed.
+	 * @param callback Callback id. If &lt; 0 no callback will get triggered.
+	 */
+	public void setItems(List<String> keys, List<String> data, int callback);
 	
 	/**
 	 * Trigger {@link Storage#clear()} on client-side
@@ -48,4 +69,63 @@ public interface LocalStorageClientRpc extends ClientRpc {
 	 */
 	public void clear(int callback);
 	
+	/**
+	 * Evaluates the query against the items on the client-side
+	 * @param query The query
+	 * @param callback Callback id
+	 */
+	public void query(LocalStorageQuery query, int callback);
+	
+	/**
+	 * Reports the usage of the localStorage
+	 * @param prefixes Key prefixes to report separately
+	 * @param callback Callback id
+	 */
+	public void getUsage(List<String> prefixes, int callback);
+	
+	/**
+	 * Encodes the items with {@link LocalStorageSnapshotCodec} and sends the
+	 * first chunk of the snapshot. The encoded snapshot is kept in memory
+	 * until its last chunk has been sent.
+	 * @param keyPrefix Only items whose key starts with the prefix are
+	 * included
+	 * @param chunkLength Maximum number of bytes per chunk
+	 * @param callback Callback id
+	 */
+	public void snapshot(String keyPrefix, int chunkLength, int callback);
+	
+	/**
+	 * Sends the next chunk of a snapshot
+	 * @param callback Callback id of the snapshot
+	 * @param cancel Discard the snapshot instead
+	 */
+	public void continueSnapshot(int callback, boolean cancel);
+	
+	/**
+	 * Receives a chunk of a snapshot to restore. All chunks are kept in
+	 * memory, the items get decoded and written after the last chunk has
+	 * been received.
+	 * @param callback Callback id
+	 * @param chunk The chunk, encoded by {@link LocalStorageBinaryCodec}.
+	 * Null cancels the restore.
+	 * @param last This is the last chunk
+	 */
+	public void restoreSnapshot(int callback, String chunk, boolean last);
+	
+	/**
+	 * Gets the data of an item whose change has been reported without its
+	 * data. The old data is the one remembered from the latest change. Fails
+	 * if the old data isn't remembered anymore, because the old data of only
+	 * the latest 100 changed keys is kept.
+	 * @param key Items key
+	 * @param callback Callback id
+	 */
+	public void getChangedItem(String key, int callback);
+	
+	/**
+	 * Asks for another round trip because the server-side has more
+	 * operations to send. Sent after the operations of a response.
+	 */
+	public void poll();
+	
 }
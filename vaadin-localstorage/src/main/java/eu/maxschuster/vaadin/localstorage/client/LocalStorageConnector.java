@@ -18,26 +18,48 @@
 
 package eu.maxschuster.vaadin.localstorage.client;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.RunAsyncCallback;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.gwt.storage.client.Storage;
 import com.google.gwt.storage.client.StorageEvent;
 import com.google.gwt.storage.client.StorageEvent.Handler;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.Window;
+import com.google.gwt.user.client.Window.ClosingEvent;
+import com.google.gwt.user.client.Window.ClosingHandler;
+import com.vaadin.client.ApplicationConnection.CommunicationHandler;
+import com.vaadin.client.ApplicationConnection.RequestStartingEvent;
+import com.vaadin.client.ApplicationConnection.ResponseHandlingEndedEvent;
+import com.vaadin.client.ApplicationConnection.ResponseHandlingStartedEvent;
 import com.vaadin.client.ServerConnector;
 import com.vaadin.client.communication.RpcProxy;
 import com.vaadin.client.communication.StateChangeEvent;
 import com.vaadin.client.extensions.AbstractExtensionConnector;
-import com.vaadin.shared.communication.ClientRpc;
 import com.vaadin.shared.communication.ServerRpc;
 import com.vaadin.shared.ui.Connect;
 
 import eu.maxschuster.vaadin.localstorage.LocalStorage;
 import eu.maxschuster.vaadin.localstorage.LocalStorage.ItemUpdateEvent;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageItemUpdateInvocation;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery;
 import eu.maxschuster.vaadin.localstorage.shared.LocalStorageServerRpc;
 import eu.maxschuster.vaadin.localstorage.shared.LocalStorageState;
 
 /**
  * Client side part of {@link LocalStorage}.
+ * <p>Optional features that need a lot of code are only referenced from
+ * {@link GWT#runAsync(Class, RunAsyncCallback)} blocks, so the GWT compiler
+ * moves them into fragments that get loaded on first use instead of the
+ * initial download.</p>
  * @author Max Schuster
  */
 @SuppressWarnings("serial")
@@ -45,84 +67,173 @@ import eu.maxschuster.vaadin.localstorage.shared.LocalStorageState;
 public class LocalStorageConnector extends AbstractExtensionConnector {
 	
 	/**
-	 * {@link ClientRpc} that contains methods who get invoked by the server side.
+	 * Maximum time a single flush of deferred writes may take
 	 */
-	private LocalStorageClientRpc clientRpc = new LocalStorageClientRpc() {
-
-		/*
-		 * (non-Javadoc)
-		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#getItem(java.lang.String, eu.maxschuster.vaadin.localstorage.shared.LocalStorageItemCallback)
-		 */
+	private static final int FLUSH_SLICE_MILLIS = 8;
+	
+	/**
+	 * Usage of the localStorage, shared by all instances of the window
+	 * because their key namespaces share the quota
+	 */
+	private static final LocalStorageUsageTracker USAGE = new LocalStorageUsageTracker();
+	
+	/**
+	 * Reports the changes made by other browser windows to the
+	 * {@link #USAGE}, once for all instances
+	 */
+	private static final StorageEvent.Handler USAGE_UPDATER = new StorageEvent.Handler() {
+		
 		@Override
-		public void getItem(String key, int callback) {
-			boolean supported = isSupported();
-			String data = null;
-			
-			if (supported) {
-				Storage s = Storage.getLocalStorageIfSupported();
-				data = s.getItem(key);
+		public void onStorageChange(StorageEvent event) {
+			if (event.getStorageArea() != Storage.getLocalStorageIfSupported()) {
+				return;
 			}
-			
-			if (callback > -1) {
-				serverRpc.callLocalStorageItemCallback(callback, supported, key, null, data);
+			if (event.getKey() == null) {
+				USAGE.onClear();
+			} else {
+				USAGE.onItemChanged(event.getKey(), event.getOldValue(), event.getNewValue());
 			}
 		}
-
-		/*
-		 * (non-Javadoc)
-		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#setItem(java.lang.String, java.lang.String, eu.maxschuster.vaadin.localstorage.shared.LocalStorageItemCallback)
-		 */
+		
+	};
+	
+	/**
+	 * The {@link #USAGE_UPDATER} has been registered
+	 */
+	private static boolean usageUpdaterRegistered = false;
+	
+	/**
+	 * {@link ServerRpc} that allows to call server side methods.
+	 */
+	private final LocalStorageServerRpc serverRpc =
+			RpcProxy.create(LocalStorageServerRpc.class, this);
+	
+	/**
+	 * Handler for {@link StorageEvent}s
+	 */
+	private final LocalStorageHandler storageEventHandler = new LocalStorageHandler();
+	
+	/**
+	 * Executes the {@link LocalStorageClientRpc} calls against the
+	 * localStorage
+	 */
+	private final BrowserExecutor executor = new BrowserExecutor();
+	
+	/**
+	 * Receives the {@link LocalStorageClientRpc} calls and passes them to
+	 * the {@link #executor} in order
+	 */
+	private final ExecutorGate gate = new ExecutorGate();
+	
+	/**
+	 * Keeps the {@link #executor} up to date with changes made by other
+	 * browser windows
+	 */
+	private final StorageEvent.Handler cacheUpdater = new StorageEvent.Handler() {
+		
 		@Override
-		public void setItem(String key, String data,
-				int callback) {
-			boolean supported = isSupported();
-			String oldData = null;
-			
-			if (supported) {
-				Storage s = Storage.getLocalStorageIfSupported();
-				oldData = s.getItem(key);
-				if (data != null) {
-					s.setItem(key, data);
-				} else {
-					s.removeItem(key);
+		public void onStorageChange(StorageEvent event) {
+			String key = event.getKey();
+			if (key != null) {
+				key = executor.toKey(key);
+				if (key == null) {
+					// Another namespace
+					return;
 				}
 			}
-			
-			if (callback > -1) {
-				serverRpc.callLocalStorageItemCallback(callback, supported, key, oldData, data);
+			if (event.getStorageArea() == Storage.getLocalStorageIfSupported()) {
+				executor.onStorageChange(key, event.getOldValue(), event.getNewValue());
 			}
 		}
-
-		/*
-		 * (non-Javadoc)
-		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#clear()
-		 */
+		
+	};
+	
+	/**
+	 * Registration of the {@link #cacheUpdater}
+	 */
+	private HandlerRegistration cacheUpdaterRegistration;
+	
+	/**
+	 * Sends the delayed item update events when their maximum delay is
+	 * reached
+	 */
+	private final Timer itemUpdateEventTimer = new Timer() {
+		
+		@Override
+		public void run() {
+			getConnection().sendPendingVariableChanges();
+		}
+		
+	};
+	
+	/**
+	 * Cancels the {@link #itemUpdateEventTimer} when a request takes the
+	 * delayed item update events along
+	 */
+	private final CommunicationHandler requestHandler = new CommunicationHandler() {
+		
+		@Override
+		public void onRequestStarting(RequestStartingEvent e) {
+			itemUpdateEventTimer.cancel();
+		}
+		
 		@Override
-		public void clear(int callback) {
-			boolean supported = isSupported();
+		public void onResponseHandlingStarted(ResponseHandlingStartedEvent e) {
 			
-			if (supported) {
-				Storage s = Storage.getLocalStorageIfSupported();
-				s.clear();
-			}
+		}
+		
+		@Override
+		public void onResponseHandlingEnded(ResponseHandlingEndedEvent e) {
 			
-			if (callback > -1) {
-				serverRpc.callLocalStorageItemCallback(callback, supported, null, null, null);
+		}
+		
+	};
+	
+	/**
+	 * Registration of the {@link #requestHandler}
+	 */
+	private HandlerRegistration requestHandlerRegistration;
+	
+	/**
+	 * {@link #flushCommand} is scheduled
+	 */
+	private boolean flushScheduled = false;
+	
+	/**
+	 * Flushes deferred writes in time slices of {@link #FLUSH_SLICE_MILLIS}
+	 */
+	private final RepeatingCommand flushCommand = new RepeatingCommand() {
+		
+		@Override
+		public boolean execute() {
+			Duration duration = new Duration();
+			while (!gate.isHolding() && executor.hasPendingWrites()
+					&& duration.elapsedMillis() < FLUSH_SLICE_MILLIS) {
+				executor.flushNext();
 			}
+			// The gate schedules the flush again when it opens
+			flushScheduled = !gate.isHolding() && executor.hasPendingWrites();
+			return flushScheduled;
 		}
 		
 	};
 	
 	/**
-	 * {@link ServerRpc} that allows to call server side methods.
+	 * Writes all deferred writes before the window gets closed
 	 */
-	private final LocalStorageServerRpc serverRpc =
-			RpcProxy.create(LocalStorageServerRpc.class, this);
+	private final ClosingHandler closingHandler = new ClosingHandler() {
+		
+		@Override
+		public void onWindowClosing(ClosingEvent event) {
+			executor.flushAll();
+		}
+		
+	};
 	
 	/**
-	 * Handler for {@link StorageEvent}s
+	 * Registration of the {@link #closingHandler}
 	 */
-	private final LocalStorageHandler storageEventHandler = new LocalStorageHandler();
+	private HandlerRegistration closingHandlerRegistration;
 
 	/*
 	 * (non-Javadoc)
@@ -130,7 +241,41 @@ public class LocalStorageConnector extends AbstractExtensionConnector {
 	 */
 	@Override
 	protected void extend(ServerConnector target) {
-		registerRpc(LocalStorageClientRpc.class, clientRpc);
+		registerRpc(LocalStorageClientRpc.class, gate);
+		if (Storage.isLocalStorageSupported()) {
+			cacheUpdaterRegistration = Storage.addStorageEventHandler(cacheUpdater);
+			if (!usageUpdaterRegistered) {
+				Storage.addStorageEventHandler(USAGE_UPDATER);
+				usageUpdaterRegistered = true;
+			}
+		}
+		closingHandlerRegistration = Window.addWindowClosingHandler(closingHandler);
+		requestHandlerRegistration = getConnection().addHandler(
+				RequestStartingEvent.TYPE, requestHandler);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.vaadin.client.ui.AbstractConnector#onUnregister()
+	 */
+	@Override
+	public void onUnregister() {
+		super.onUnregister();
+		executor.flushAll();
+		itemUpdateEventTimer.cancel();
+		if (requestHandlerRegistration != null) {
+			requestHandlerRegistration.removeHandler();
+			requestHandlerRegistration = null;
+		}
+		if (closingHandlerRegistration != null) {
+			closingHandlerRegistration.removeHandler();
+			closingHandlerRegistration = null;
+		}
+		if (cacheUpdaterRegistration != null) {
+			cacheUpdaterRegistration.removeHandler();
+			cacheUpdaterRegistration = null;
+		}
+		executor.invalidate();
 	}
 
 	/*
@@ -143,18 +288,80 @@ public class LocalStorageConnector extends AbstractExtensionConnector {
 	}
 	
 	/**
-	 * @return localStorage is supported
+	 * Queues an item update event as delayed rpc call. It replaces a queued
+	 * event of the same key and gets sent with the next request, or when the
+	 * delay has elapsed.
+	 * @param invocation The rpc call
+	 * @param delay Maximum delay in milliseconds
 	 */
-	private boolean isSupported() {
-		return !getState().simulateNotSupported && Storage.isLocalStorageSupported();
+	private void queueItemUpdateEvent(LocalStorageItemUpdateInvocation invocation, int delay) {
+		getConnection().addMethodInvocationToQueue(invocation, true, true);
+		if (!itemUpdateEventTimer.isRunning()) {
+			itemUpdateEventTimer.schedule(delay);
+		}
 	}
-
+	
+	/**
+	 * Schedules the {@link #flushCommand} if necessary
+	 */
+	private void scheduleFlush() {
+		if (!flushScheduled) {
+			flushScheduled = true;
+			Scheduler.get().scheduleIncremental(flushCommand);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.vaadin.client.ui.AbstractConnector#onStateChanged(com.vaadin.client.communication.StateChangeEvent)
 	 */
 	@Override
 	public void onStateChanged(StateChangeEvent stateChangeEvent) {
 		super.onStateChanged(stateChangeEvent);
+		// Held like the rpc calls, so calls that arrived earlier see the old state
+		if (stateChangeEvent.hasPropertyChanged("simulateNotSupported")) {
+			final boolean simulateNotSupported = getState().simulateNotSupported;
+			gate.run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.setSimulateNotSupported(simulateNotSupported);
+				}
+				
+			});
+		}
+		if (stateChangeEvent.hasPropertyChanged("keyNamespace")) {
+			final String keyNamespace = getState().keyNamespace;
+			gate.run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.setKeyNamespace(keyNamespace);
+				}
+				
+			});
+		}
+		if (stateChangeEvent.hasPropertyChanged("readCacheSize")) {
+			final int readCacheSize = getState().readCacheSize;
+			gate.run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.setReadCacheSize(readCacheSize);
+				}
+				
+			});
+		}
+		if (stateChangeEvent.hasPropertyChanged("deferWrites")) {
+			final boolean deferWrites = getState().deferWrites;
+			gate.run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.setDeferWrites(deferWrites);
+				}
+				
+			});
+		}
 		if (stateChangeEvent.hasPropertyChanged("registeredEventListeners")) {
 			Set<String> listeners = getState().registeredEventListeners;
 			if (listeners != null) {
@@ -174,6 +381,343 @@ public class LocalStorageConnector extends AbstractExtensionConnector {
 		}
 	}
 	
+	/**
+	 * {@link LocalStorageExecutor} that flushes deferred writes with the
+	 * {@link #flushCommand}
+	 * @author Max Schuster
+	 */
+	private class BrowserExecutor extends LocalStorageExecutor {
+		
+		public BrowserExecutor() {
+			super(new BrowserStorageBackend(), serverRpc, USAGE);
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageExecutor#onWriteDeferred()
+		 */
+		@Override
+		protected void onWriteDeferred() {
+			scheduleFlush();
+		}
+		
+	}
+	
+	/**
+	 * Passes the {@link LocalStorageClientRpc} calls and state changes to
+	 * the {@link #executor} in the order they arrived.
+	 * <p>A call that needs a fragment, like the query engine or the
+	 * snapshot format, holds all later calls until the fragment has been loaded and the call has been
+	 * executed, so a query sees the items as they were when it was
+	 * issued.</p>
+	 * @author Max Schuster
+	 */
+	private class ExecutorGate implements LocalStorageClientRpc {
+		
+		/**
+		 * Calls waiting for a fragment or null if none is being loaded
+		 */
+		private List<ScheduledCommand> held = null;
+		
+		/**
+		 * @return Calls are held until a fragment has been loaded
+		 */
+		public boolean isHolding() {
+			return held != null;
+		}
+		
+		/**
+		 * Executes the command now or after the fragment being loaded
+		 * @param command The command
+		 */
+		public void run(ScheduledCommand command) {
+			if (held != null) {
+				held.add(command);
+			} else {
+				command.execute();
+			}
+		}
+		
+		/**
+		 * Holds all following calls until {@link #release()} gets called
+		 */
+		private void hold() {
+			held = new ArrayList<ScheduledCommand>();
+		}
+		
+		/**
+		 * Executes the held calls
+		 */
+		private void release() {
+			List<ScheduledCommand> commands = held;
+			held = null;
+			for (int i = 0; i < commands.size(); i++) {
+				if (held != null) {
+					// A call started loading another fragment
+					held.addAll(commands.subList(i, commands.size()));
+					return;
+				}
+				commands.get(i).execute();
+			}
+			if (executor.hasPendingWrites()) {
+				scheduleFlush();
+			}
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#getItem(java.lang.String, int, java.lang.String)
+		 */
+		@Override
+		public void getItem(final String key, final int callback, final String hash) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.getItem(key, callback, hash);
+				}
+				
+			});
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#setItem(java.lang.String, java.lang.String, int, boolean)
+		 */
+		@Override
+		public void setItem(final String key, final String data, final int callback,
+				final boolean fetchOldData) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.setItem(key, data, callback, fetchOldData);
+				}
+				
+			});
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#setItems(java.util.List, java.util.List, int)
+		 */
+		@Override
+		public void setItems(final List<String> keys, final List<String> data, final int callback) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.setItems(keys, data, callback);
+				}
+				
+			});
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#clear(int)
+		 */
+		@Override
+		public void clear(final int callback) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.clear(callback);
+				}
+				
+			});
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#query(eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery, int)
+		 */
+		@Override
+		public void query(final LocalStorageQuery query, final int callback) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					if (!executor.isSupported() || executor.getQueryEngine() != null) {
+						executor.query(query, callback);
+					} else {
+						loadQueryEngine(query, callback);
+					}
+				}
+				
+			});
+		}
+		
+		/**
+		 * Loads the query engine and the JSON parser, then executes the
+		 * query
+		 * @param query The query
+		 * @param callback Callback id of the query
+		 */
+		private void loadQueryEngine(final LocalStorageQuery query, final int callback) {
+			hold();
+			GWT.runAsync(LocalStorageQueryEngine.class, new RunAsyncCallback() {
+				
+				@Override
+				public void onSuccess() {
+					if (executor.getQueryEngine() == null) {
+						executor.setQueryEngine(new LocalStorageQueryEngine(new BrowserJson()));
+					}
+					executor.query(query, callback);
+					release();
+				}
+				
+				@Override
+				public void onFailure(Throwable reason) {
+					serverRpc.callLocalStorageQueryCallback(callback, false, null, null);
+					release();
+				}
+				
+			});
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#getUsage(java.util.List, int)
+		 */
+		@Override
+		public void getUsage(final List<String> prefixes, final int callback) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.getUsage(prefixes, callback);
+				}
+				
+			});
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#snapshot(java.lang.String, int, int)
+		 */
+		@Override
+		public void snapshot(final String keyPrefix, final int chunkLength, final int callback) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.snapshot(keyPrefix, chunkLength, callback);
+				}
+				
+			}, callback);
+		}
+		
+		/**
+		 * Executes a snapshot command now or after the snapshot format has
+		 * been loaded
+		 * @param command The command
+		 * @param callback Callback id of the snapshot, fails if the format
+		 * can't be loaded
+		 */
+		private void run(final ScheduledCommand command, final int callback) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					if (!executor.isSupported() || executor.getSnapshotFormat() != null) {
+						command.execute();
+					} else {
+						loadSnapshotFormat(command, callback);
+					}
+				}
+				
+			});
+		}
+		
+		/**
+		 * Loads the snapshot format, then executes the command
+		 * @param command The command
+		 * @param callback Callback id of the snapshot
+		 */
+		private void loadSnapshotFormat(final ScheduledCommand command, final int callback) {
+			hold();
+			GWT.runAsync(LocalStorageSnapshotFormat.class, new RunAsyncCallback() {
+				
+				@Override
+				public void onSuccess() {
+					if (executor.getSnapshotFormat() == null) {
+						executor.setSnapshotFormat(new CompressedSnapshotFormat());
+					}
+					command.execute();
+					release();
+				}
+				
+				@Override
+				public void onFailure(Throwable reason) {
+					serverRpc.callLocalStorageSnapshotCallback(callback, false, null, true);
+					release();
+				}
+				
+			});
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#continueSnapshot(int, boolean)
+		 */
+		@Override
+		public void continueSnapshot(final int callback, final boolean cancel) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.continueSnapshot(callback, cancel);
+				}
+				
+			});
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#restoreSnapshot(int, java.lang.String, boolean)
+		 */
+		@Override
+		public void restoreSnapshot(final int callback, final String chunk, final boolean last) {
+			ScheduledCommand command = new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.restoreSnapshot(callback, chunk, last);
+				}
+				
+			};
+			if (chunk != null && last) {
+				// Only the last chunk gets decoded
+				run(command, callback);
+			} else {
+				run(command);
+			}
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#getChangedItem(java.lang.String, int)
+		 */
+		@Override
+		public void getChangedItem(final String key, final int callback) {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.getChangedItem(key, callback);
+				}
+				
+			});
+		}
+		
+		/* (non-Javadoc)
+		 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#poll()
+		 */
+		@Override
+		public void poll() {
+			run(new ScheduledCommand() {
+				
+				@Override
+				public void execute() {
+					executor.poll();
+				}
+				
+			});
+		}
+		
+	}
+	
 	/**
 	 * {@link Handler} implementation with additional
 	 * {@link LocalStorageHandler#isAttached()} method.
@@ -188,7 +732,32 @@ public class LocalStorageConnector extends AbstractExtensionConnector {
 		
 		@Override
 		public void onStorageChange(StorageEvent event) {
-			serverRpc.triggerItemUpdateEvent(event.getKey(), event.getOldValue(), event.getNewValue());
+			int delay = getState().itemUpdateEventDelay;
+			String key = event.getKey();
+			if (key != null) {
+				key = executor.toKey(key);
+				if (key == null) {
+					// Another namespace
+					return;
+				}
+			}
+			if (getState().lazyItemUpdateEvents) {
+				// The old data is gone afterwards, keep it for getChangedItem
+				executor.rememberChange(key, event.getOldValue());
+				boolean removed = key != null && event.getNewValue() == null;
+				if (delay > 0) {
+					queueItemUpdateEvent(new LocalStorageItemUpdateInvocation(getConnectorId(),
+							"triggerItemChangedEvent", key, key, removed), delay);
+				} else {
+					serverRpc.triggerItemChangedEvent(key, removed);
+				}
+			} else if (delay > 0) {
+				queueItemUpdateEvent(new LocalStorageItemUpdateInvocation(getConnectorId(),
+						"triggerItemUpdateEvent", key, key, event.getOldValue(),
+						event.getNewValue()), delay);
+			} else {
+				serverRpc.triggerItemUpdateEvent(key, event.getOldValue(), event.getNewValue());
+			}
 		}
 
 		/**
@@ -0,0 +1,804 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.LocalStorageExecutor.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.maxschuster.vaadin.localstorage.client.LocalStorageWriteQueue.PendingWrite;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageBinaryCodec;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageHash;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageServerRpc;
+
+/**
+ * Executes the {@link LocalStorageClientRpc} calls against a
+ * {@link LocalStorageBackend} and answers them through the
+ * {@link LocalStorageServerRpc}.
+ * <p>Contains the client-side logic that doesn't depend on the browser:
+ * read cache, deferred writes, usage tracking, queries and the key
+ * namespace of named instances. It only uses
+ * plain Java, so it also runs on the JVM with a {@link MemoryStorageBackend}.
+ * Scheduling is left to the caller: deferred writes have to be flushed with
+ * {@link #flushNext()} or {@link #flushAll()}.</p>
+ * @author Max Schuster
+ * @see LocalStorageConnector
+ */
+@SuppressWarnings("serial")
+public class LocalStorageExecutor implements LocalStorageClientRpc {
+	
+	/**
+	 * Maximum number of keys whose old data is kept for lazy item update
+	 * events
+	 */
+	private static final int MAX_CHANGED_OLD_DATA = 100;
+	
+	/**
+	 * The storage with the items of all namespaces
+	 */
+	private final LocalStorageBackend storage;
+	
+	/**
+	 * The storage, seen through the key namespace
+	 */
+	private final NamespacedStorageBackend backend;
+	
+	/**
+	 * Receives the answers
+	 */
+	private final LocalStorageServerRpc serverRpc;
+	
+	/**
+	 * Read cache of the storage
+	 */
+	private final LocalStorageCache cache = new LocalStorageCache(0);
+	
+	/**
+	 * Deferred writes
+	 */
+	private final LocalStorageWriteQueue writeQueue = new LocalStorageWriteQueue();
+	
+	/**
+	 * Usage of the {@link #storage} by storage key, may be shared with
+	 * the executors of other namespaces
+	 */
+	private final LocalStorageUsageTracker usage;
+	
+	/**
+	 * Old data of the latest changes reported without their data by key
+	 */
+	private final Map<String, String> changedOldData = new LinkedHashMap<String, String>() {
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_CHANGED_OLD_DATA;
+		}
+		
+	};
+	
+	/**
+	 * Evaluates queries and keeps their indexes. Null until it gets set.
+	 */
+	private LocalStorageQueryEngine queryEngine = null;
+	
+	/**
+	 * The items of the storage as seen by queries, pending writes included
+	 */
+	private final LocalStorageQueryEngine.Items storageItems = new LocalStorageQueryEngine.Items() {
+		
+		@Override
+		public Collection<String> getKeys(String prefix) {
+			List<String> keys = new ArrayList<String>();
+			int length = backend.getLength();
+			for (int i = 0; i < length; i++) {
+				String key = backend.key(i);
+				if (key != null && key.startsWith(prefix) && !writeQueue.contains(key)) {
+					keys.add(key);
+				}
+			}
+			for (String key : writeQueue.getKeys()) {
+				if (key.startsWith(prefix)) {
+					keys.add(key);
+				}
+			}
+			return keys;
+		}
+		
+		@Override
+		public String getItem(String key) {
+			return readItem(key);
+		}
+		
+	};
+	
+	/**
+	 * Encodes and decodes snapshots. Null until it gets set.
+	 */
+	private LocalStorageSnapshotFormat snapshotFormat = null;
+	
+	/**
+	 * Snapshots being sent by callback id
+	 */
+	private final Map<Integer, Transfer> snapshots = new HashMap<Integer, Transfer>();
+	
+	/**
+	 * Received chunks of snapshots being restored by callback id
+	 */
+	private final Map<Integer, List<String>> restores = new HashMap<Integer, List<String>>();
+	
+	/**
+	 * Act as if the storage wasn't supported
+	 */
+	private boolean simulateNotSupported = false;
+	
+	/**
+	 * Queue writes instead of executing them immediately
+	 */
+	private boolean deferWrites = false;
+	
+	/**
+	 * @param backend The storage
+	 * @param serverRpc Receives the answers
+	 */
+	public LocalStorageExecutor(LocalStorageBackend backend, LocalStorageServerRpc serverRpc) {
+		this(backend, serverRpc, new LocalStorageUsageTracker());
+	}
+	
+	/**
+	 * Executors of different namespaces of the same storage have to share
+	 * the usage tracker, so each one sees the writes of the others.
+	 * Changes made by other browser windows have to be reported to the
+	 * tracker once, see {@link #getUsageTracker()}.
+	 * @param backend The storage
+	 * @param serverRpc Receives the answers
+	 * @param usage Usage of the storage
+	 */
+	public LocalStorageExecutor(LocalStorageBackend backend, LocalStorageServerRpc serverRpc,
+			LocalStorageUsageTracker usage) {
+		this.storage = backend;
+		this.backend = new NamespacedStorageBackend(backend);
+		this.serverRpc = serverRpc;
+		this.usage = usage;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#getItem(java.lang.String, int, java.lang.String)
+	 */
+	@Override
+	public void getItem(String key, int callback, String hash) {
+		boolean supported = isSupported();
+		String data = null;
+		
+		if (supported) {
+			data = readItem(key);
+		}
+		
+		if (callback > -1) {
+			if (supported && hash != null && data != null && hash.equals(readHash(key))) {
+				serverRpc.callLocalStorageItemUnchangedCallback(callback, key);
+			} else {
+				serverRpc.callLocalStorageItemCallback(callback, supported, key, null, data);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#setItem(java.lang.String, java.lang.String, int, boolean)
+	 */
+	@Override
+	public void setItem(String key, String data, int callback, boolean fetchOldData) {
+		boolean supported = isSupported();
+		boolean success = supported;
+		String oldData = null;
+		
+		if (supported) {
+			if (fetchOldData) {
+				oldData = readItem(key);
+			}
+			if (deferWrites) {
+				// Answered when the write gets flushed
+				writeQueue.add(key, data, callback, oldData);
+				if (queryEngine != null) {
+					queryEngine.onItemChanged(key, data);
+				}
+				onWriteDeferred();
+				return;
+			}
+			try {
+				write(key, data);
+				if (queryEngine != null) {
+					queryEngine.onItemChanged(key, data);
+				}
+			} catch (RuntimeException e) {
+				// e.g. quota exceeded
+				success = false;
+				usage.onQuotaExceeded();
+				if (queryEngine != null) {
+					queryEngine.invalidateAll();
+				}
+			}
+		}
+		
+		if (callback > -1) {
+			// The server side already knows the new data
+			serverRpc.callLocalStorageItemCallback(callback, success, key, oldData, null);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#setItems(java.util.List, java.util.List, int)
+	 */
+	@Override
+	public void setItems(List<String> keys, List<String> data, int callback) {
+		boolean success = isSupported() && writeAll(keys, data);
+		
+		if (callback > -1) {
+			serverRpc.callLocalStorageItemCallback(callback, success, null, null, null);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#clear(int)
+	 */
+	@Override
+	public void clear(int callback) {
+		boolean supported = isSupported();
+		
+		// Pending writes would get cleared anyway
+		while (!writeQueue.isEmpty()) {
+			answer(writeQueue.poll(), supported);
+		}
+		
+		if (supported) {
+			cache.clear(backend);
+			if (queryEngine != null) {
+				queryEngine.onClear();
+			}
+			if (backend.getNamespace().length() == 0) {
+				usage.onClear();
+			} else {
+				// Only the namespace has been cleared
+				usage.invalidate();
+			}
+		}
+		
+		if (callback > -1) {
+			serverRpc.callLocalStorageItemCallback(callback, supported, null, null, null);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#query(eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery, int)
+	 */
+	@Override
+	public void query(LocalStorageQuery query, int callback) {
+		if (!isSupported() || queryEngine == null) {
+			serverRpc.callLocalStorageQueryCallback(callback, false, null, null);
+			return;
+		}
+		List<String> keys = new ArrayList<String>();
+		List<String> data = query.keysOnly ? null : new ArrayList<String>();
+		boolean success = true;
+		try {
+			queryEngine.evaluate(query, storageItems, keys, data);
+		} catch (RuntimeException e) {
+			// e.g. invalid JSON literal
+			success = false;
+			keys = null;
+			data = null;
+		}
+		serverRpc.callLocalStorageQueryCallback(callback, success, keys, data);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#getChangedItem(java.lang.String, int)
+	 */
+	@Override
+	public void getChangedItem(String key, int callback) {
+		// Null old data would look like an item that didn't exist
+		boolean remembered = changedOldData.containsKey(key);
+		boolean success = isSupported() && remembered;
+		String data = null;
+		
+		if (success) {
+			data = readItem(key);
+		}
+		
+		serverRpc.callLocalStorageItemCallback(callback, success, key,
+				success ? changedOldData.get(key) : null, data);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#poll()
+	 */
+	@Override
+	public void poll() {
+		serverRpc.poll();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#getUsage(java.util.List, int)
+	 */
+	@Override
+	public void getUsage(List<String> prefixes, int callback) {
+		if (!isSupported()) {
+			serverRpc.callLocalStorageUsageCallback(callback, false, 0, 0, 0, null, null);
+			return;
+		}
+		// Totals of the whole storage, prefixes within the namespace
+		String namespace = backend.getNamespace();
+		List<String> storagePrefixes = new ArrayList<String>(prefixes.size());
+		for (String prefix : prefixes) {
+			storagePrefixes.add(namespace + prefix);
+		}
+		usage.track(storage, storagePrefixes);
+		List<Integer> prefixBytes = new ArrayList<Integer>(prefixes.size());
+		List<Integer> prefixItemCounts = new ArrayList<Integer>(prefixes.size());
+		for (String prefix : storagePrefixes) {
+			prefixBytes.add(usage.getUsedBytes(prefix));
+			prefixItemCounts.add(usage.getItemCount(prefix));
+		}
+		serverRpc.callLocalStorageUsageCallback(callback, true, usage.getUsedBytes(),
+				usage.getItemCount(), usage.getEstimatedQuotaBytes(),
+				prefixBytes, prefixItemCounts);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#snapshot(java.lang.String, int, int)
+	 */
+	@Override
+	public void snapshot(String keyPrefix, int chunkLength, int callback) {
+		if (!isSupported() || snapshotFormat == null) {
+			serverRpc.callLocalStorageSnapshotCallback(callback, false, null, true);
+			return;
+		}
+		List<String> keys = new ArrayList<String>(storageItems.getKeys(keyPrefix));
+		List<String> data = new ArrayList<String>(keys.size());
+		for (String key : keys) {
+			data.add(readItem(key));
+		}
+		Transfer transfer = new Transfer(
+				snapshotFormat.encode(keyPrefix, keys, data), chunkLength);
+		snapshots.put(callback, transfer);
+		sendChunk(callback, transfer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#continueSnapshot(int, boolean)
+	 */
+	@Override
+	public void continueSnapshot(int callback, boolean cancel) {
+		Transfer transfer = snapshots.get(callback);
+		if (transfer == null || cancel) {
+			snapshots.remove(callback);
+			return;
+		}
+		sendChunk(callback, transfer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc#restoreSnapshot(int, java.lang.String, boolean)
+	 */
+	@Override
+	public void restoreSnapshot(int callback, String chunk, boolean last) {
+		if (chunk == null) {
+			// Canceled by the server-side
+			restores.remove(callback);
+			return;
+		}
+		List<String> chunks = restores.get(callback);
+		if (chunks == null) {
+			chunks = new ArrayList<String>();
+			restores.put(callback, chunks);
+		}
+		chunks.add(chunk);
+		if (!last) {
+			serverRpc.callLocalStorageSnapshotCallback(callback, true, null, false);
+			return;
+		}
+		restores.remove(callback);
+		
+		boolean success = isSupported() && snapshotFormat != null;
+		if (success) {
+			List<String> keys = new ArrayList<String>();
+			List<String> data = new ArrayList<String>();
+			String keyPrefix;
+			try {
+				keyPrefix = snapshotFormat.decode(join(chunks), keys, data);
+			} catch (IllegalArgumentException e) {
+				keyPrefix = null;
+				success = false;
+			}
+			if (success) {
+				// Items of the prefix that are not in the snapshot get removed
+				Set<String> restored = new HashSet<String>(keys);
+				for (String key : storageItems.getKeys(keyPrefix)) {
+					if (!restored.contains(key)) {
+						keys.add(key);
+						data.add(null);
+					}
+				}
+				success = writeAll(keys, data);
+			}
+		}
+		serverRpc.callLocalStorageSnapshotCallback(callback, success, null, true);
+	}
+	
+	/**
+	 * Applies a change made by another browser window. The change has to
+	 * be reported to the {@link #getUsageTracker()} separately.
+	 * @param key Items key or null if the storage has been cleared
+	 * @param oldValue Items old data
+	 * @param newValue Items new data
+	 */
+	public void onStorageChange(String key, String oldValue, String newValue) {
+		cache.onStorageChange(key, newValue);
+		if (queryEngine == null) {
+			return;
+		}
+		if (key == null) {
+			queryEngine.invalidateAll();
+		} else {
+			queryEngine.onItemChanged(key, readItem(key));
+		}
+	}
+	
+	/**
+	 * @param storageKey Key of a change reported by the browser
+	 * @return The key without namespace or null if the change belongs to
+	 * another namespace
+	 */
+	public String toKey(String storageKey) {
+		return backend.toKey(storageKey);
+	}
+	
+	/**
+	 * Keeps the old data of a change that gets reported without its data,
+	 * for {@link #getChangedItem(String, int)}
+	 * @param key Items key or null if the storage has been cleared
+	 * @param oldValue Items old data
+	 */
+	public void rememberChange(String key, String oldValue) {
+		if (key != null) {
+			changedOldData.put(key, oldValue);
+		} else {
+			changedOldData.clear();
+		}
+	}
+	
+	/**
+	 * @return The storage is supported
+	 */
+	public boolean isSupported() {
+		return !simulateNotSupported && backend.isSupported();
+	}
+	
+	/**
+	 * @param simulateNotSupported Act as if the storage wasn't supported
+	 */
+	public void setSimulateNotSupported(boolean simulateNotSupported) {
+		this.simulateNotSupported = simulateNotSupported;
+	}
+	
+	/**
+	 * @param deferWrites Queue writes instead of executing them
+	 * immediately. Disabling writes all queued writes.
+	 */
+	public void setDeferWrites(boolean deferWrites) {
+		this.deferWrites = deferWrites;
+		if (!deferWrites) {
+			flushAll();
+		}
+	}
+	
+	/**
+	 * @param readCacheSize Maximum number of cached items. 0 disables the
+	 * cache.
+	 */
+	public void setReadCacheSize(int readCacheSize) {
+		cache.setMaxSize(readCacheSize);
+	}
+	
+	/**
+	 * @return The query engine or null
+	 */
+	public LocalStorageQueryEngine getQueryEngine() {
+		return queryEngine;
+	}
+	
+	/**
+	 * Queries fail until a query engine has been set
+	 * @param queryEngine The query engine
+	 */
+	public void setQueryEngine(LocalStorageQueryEngine queryEngine) {
+		this.queryEngine = queryEngine;
+	}
+	
+	/**
+	 * @return Usage of the storage by storage key
+	 */
+	public LocalStorageUsageTracker getUsageTracker() {
+		return usage;
+	}
+	
+	/**
+	 * @return The snapshot format or null
+	 */
+	public LocalStorageSnapshotFormat getSnapshotFormat() {
+		return snapshotFormat;
+	}
+	
+	/**
+	 * Snapshots and restores fail until a snapshot format has been set
+	 * @param snapshotFormat The snapshot format
+	 */
+	public void setSnapshotFormat(LocalStorageSnapshotFormat snapshotFormat) {
+		this.snapshotFormat = snapshotFormat;
+	}
+	
+	/**
+	 * @return Prefix of the keys of this executor in the storage
+	 */
+	public String getKeyNamespace() {
+		return backend.getNamespace();
+	}
+	
+	/**
+	 * Pending writes are written to the old namespace
+	 * @param keyNamespace Prefix of the keys of this executor in the
+	 * storage
+	 */
+	public void setKeyNamespace(String keyNamespace) {
+		if (!backend.getNamespace().equals(keyNamespace)) {
+			flushAll();
+			backend.setNamespace(keyNamespace);
+			invalidate();
+		}
+	}
+	
+	/**
+	 * @return Deferred writes are pending
+	 */
+	public boolean hasPendingWrites() {
+		return !writeQueue.isEmpty();
+	}
+	
+	/**
+	 * Executes the oldest deferred write
+	 */
+	public void flushNext() {
+		if (!writeQueue.isEmpty()) {
+			flush(writeQueue.poll());
+		}
+	}
+	
+	/**
+	 * Executes all deferred writes
+	 */
+	public void flushAll() {
+		while (!writeQueue.isEmpty()) {
+			flush(writeQueue.poll());
+		}
+	}
+	
+	/**
+	 * Forgets all cached state. Pending writes have to be flushed first.
+	 */
+	public void invalidate() {
+		cache.invalidateAll();
+		changedOldData.clear();
+		snapshots.clear();
+		restores.clear();
+		usage.invalidate();
+		if (queryEngine != null) {
+			queryEngine.invalidateAll();
+		}
+	}
+	
+	/**
+	 * Gets called after a write has been queued
+	 */
+	protected void onWriteDeferred() {
+		
+	}
+
+	/**
+	 * Reads the items data, pending writes included
+	 * @param key Items key
+	 * @return Items data
+	 */
+	private String readItem(String key) {
+		if (writeQueue.contains(key)) {
+			return writeQueue.get(key);
+		}
+		return cache.getItem(backend, key);
+	}
+	
+	/**
+	 * Gets the {@link LocalStorageHash} of the items data, pending writes
+	 * included
+	 * @param key Items key
+	 * @return The hash of the items data
+	 */
+	private String readHash(String key) {
+		if (writeQueue.contains(key)) {
+			return LocalStorageHash.hash(writeQueue.get(key));
+		}
+		return cache.getHash(backend, key);
+	}
+	
+	/**
+	 * Writes the item through the {@link #cache} and reports the change to
+	 * the {@link #usage}
+	 * @param key Items key
+	 * @param data Items data. If data is null the item will get removed.
+	 */
+	private void write(String key, String data) {
+		String oldData = usage.isTracking() ? cache.getItem(backend, key) : null;
+		cache.setItem(backend, key, data);
+		usage.onItemChanged(backend.getNamespace() + key, oldData, data);
+	}
+	
+	/**
+	 * Writes several items at once, pending writes first
+	 * @param keys Items keys
+	 * @param data Items data. If an items data is null the item will get
+	 * removed.
+	 * @return All items have been written
+	 */
+	private boolean writeAll(List<String> keys, List<String> data) {
+		// Later writes must not get overtaken by pending ones
+		flushAll();
+		for (int i = 0; i < keys.size(); i++) {
+			String key = keys.get(i);
+			try {
+				write(key, data.get(i));
+			} catch (RuntimeException e) {
+				// e.g. quota exceeded
+				usage.onQuotaExceeded();
+				if (queryEngine != null) {
+					queryEngine.invalidateAll();
+				}
+				return false;
+			}
+			if (queryEngine != null) {
+				queryEngine.onItemChanged(key, data.get(i));
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Sends the next chunk of a snapshot
+	 * @param callback Callback id of the snapshot
+	 * @param transfer The snapshot
+	 */
+	private void sendChunk(int callback, Transfer transfer) {
+		int length = Math.min(transfer.chunkLength, transfer.bytes.length - transfer.position);
+		String chunk = LocalStorageBinaryCodec.encode(transfer.bytes, transfer.position, length);
+		transfer.position += length;
+		boolean last = transfer.position == transfer.bytes.length;
+		if (last) {
+			snapshots.remove(callback);
+		}
+		serverRpc.callLocalStorageSnapshotCallback(callback, true, chunk, last);
+	}
+	
+	/**
+	 * @param chunks Chunks encoded by {@link LocalStorageBinaryCodec}
+	 * @return The decoded bytes of all chunks
+	 * @throws IllegalArgumentException A chunk is not a valid encoding
+	 */
+	private static byte[] join(List<String> chunks) throws IllegalArgumentException {
+		int length = 0;
+		for (String chunk : chunks) {
+			length += LocalStorageBinaryCodec.getDecodedLength(chunk);
+		}
+		byte[] bytes = new byte[length];
+		int offset = 0;
+		for (String chunk : chunks) {
+			offset += LocalStorageBinaryCodec.decode(chunk, bytes, offset);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Executes a deferred write and answers its callbacks
+	 * @param write The deferred write
+	 */
+	private void flush(PendingWrite write) {
+		boolean success = isSupported();
+		if (success) {
+			try {
+				write(write.getKey(), write.getData());
+			} catch (RuntimeException e) {
+				// e.g. quota exceeded
+				success = false;
+				usage.onQuotaExceeded();
+				if (queryEngine != null) {
+					queryEngine.invalidateAll();
+				}
+			}
+		}
+		answer(write, success);
+	}
+	
+	/**
+	 * Answers all callbacks of a deferred write
+	 * @param write The deferred write
+	 * @param success The write was successful
+	 */
+	private void answer(PendingWrite write, boolean success) {
+		List<Integer> callbacks = write.getCallbacks();
+		for (int i = 0; i < callbacks.size(); i++) {
+			serverRpc.callLocalStorageItemCallback(callbacks.get(i), success,
+					write.getKey(), write.getOldData().get(i), null);
+		}
+	}
+	
+	/**
+	 * A snapshot being sent
+	 * @author Max Schuster
+	 */
+	private static class Transfer {
+		
+		/**
+		 * The encoded snapshot
+		 */
+		private final byte[] bytes;
+		
+		/**
+		 * Maximum number of bytes per chunk
+		 */
+		private final int chunkLength;
+		
+		/**
+		 * Number of sent bytes
+		 */
+		private int position = 0;
+		
+		/**
+		 * @param bytes The encoded snapshot
+		 * @param chunkLength Maximum number of bytes per chunk
+		 */
+		public Transfer(byte[] bytes, int chunkLength) {
+			this.bytes = bytes;
+			this.chunkLength = Math.max(1, chunkLength);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,55 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.LocalStorageJson.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+/**
+ * JSON access of the {@link LocalStorageQueryEngine}. Parsed values are
+ * opaque to the engine, so it can run with the browsers JSON parser as well
+ * as on a plain JVM.
+ * @author Max Schuster
+ * @see BrowserJson
+ * @see com.google.gwt.json.client.JSONParser
+ */
+public interface LocalStorageJson {
+	
+	/**
+	 * @param json JSON text
+	 * @return The parsed value
+	 * @throws RuntimeException if the text isn't valid JSON
+	 */
+	public Object parse(String json);
+	
+	/**
+	 * @param value A parsed value
+	 * @param segment Member name of an object or index of an array
+	 * @return The member or element or null if there is none
+	 */
+	public Object get(Object value, String segment);
+	
+	/**
+	 * Canonical form of a scalar value: {@code "n"} followed by the
+	 * {@link String#valueOf(double)} of a number, {@code "s"} followed by a
+	 * string, {@code "b"} followed by a boolean or {@code "z"} for null.
+	 * Equal values have the same canonical form.
+	 * @param value A parsed value
+	 * @return The canonical form or null if the value isn't a scalar
+	 */
+	public String canonical(Object value);
+	
+}
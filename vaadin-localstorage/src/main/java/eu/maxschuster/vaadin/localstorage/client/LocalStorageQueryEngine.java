@@ -0,0 +1,414 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.LocalStorageQueryEngine.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery.Condition;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery.Operator;
+
+/**
+ * Evaluates {@link LocalStorageQuery}s and maintains the indexes used by
+ * indexed queries.
+ * <p>An index maps the values at one JSON path of all items with one key
+ * prefix to their keys. It gets built by the first indexed query that needs
+ * it. Afterwards every change of an item has to be reported with
+ * {@link #onItemChanged(String, String)}.</p>
+ * <p>JSON is accessed through a {@link LocalStorageJson}.</p>
+ * @author Max Schuster
+ */
+public class LocalStorageQueryEngine {
+
+	/**
+	 * Maximum number of indexes, the least recently used one gets dropped
+	 */
+	private static final int MAX_INDEXES = 8;
+
+	/**
+	 * Indexes by prefix and path in access order
+	 */
+	@SuppressWarnings("serial")
+	private final Map<String, Index> indexes = new LinkedHashMap<String, Index>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Index> eldest) {
+			return size() > MAX_INDEXES;
+		}
+
+	};
+
+	/**
+	 * Parses and reads the JSON data
+	 */
+	private final LocalStorageJson json;
+
+	/**
+	 * @param json Parses and reads the JSON data
+	 */
+	public LocalStorageQueryEngine(LocalStorageJson json) {
+		this.json = json;
+	}
+
+	/**
+	 * Evaluates the query
+	 * @param query The query
+	 * @param items The queried items
+	 * @param keys Receives the keys of the matching items
+	 * @param data Receives the data of the matching items. May be null.
+	 */
+	public void evaluate(LocalStorageQuery query, Items items,
+			List<String> keys, List<String> data) {
+		List<Predicate> predicates = new ArrayList<Predicate>(query.conditions.size());
+		Predicate indexed = null;
+		for (Condition condition : query.conditions) {
+			Predicate predicate = new Predicate(condition);
+			if (query.indexed && indexed == null && predicate.isIndexable()) {
+				indexed = predicate;
+			}
+			predicates.add(predicate);
+		}
+
+		Collection<String> candidates;
+		if (indexed != null) {
+			candidates = getIndex(query.keyPrefix, indexed, items).get(indexed.canonical);
+		} else {
+			candidates = items.getKeys(query.keyPrefix);
+		}
+
+		for (String key : candidates) {
+			String d = items.getItem(key);
+			if (d != null && matches(predicates, d)) {
+				keys.add(key);
+				if (data != null) {
+					data.add(d);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates the indexes after an item has changed
+	 * @param key Items key
+	 * @param data Items new data or null if it has been removed
+	 */
+	public void onItemChanged(String key, String data) {
+		Object value = null;
+		boolean parsed = false;
+		for (Index index : indexes.values()) {
+			if (key.startsWith(index.prefix)) {
+				if (!parsed) {
+					value = parse(data);
+					parsed = true;
+				}
+				index.update(key, value);
+			}
+		}
+	}
+
+	/**
+	 * Empties the indexes after the storage has been cleared
+	 */
+	public void onClear() {
+		for (Index index : indexes.values()) {
+			index.clear();
+		}
+	}
+
+	/**
+	 * Drops all indexes. They get rebuilt on demand.
+	 */
+	public void invalidateAll() {
+		indexes.clear();
+	}
+
+	/**
+	 * Gets the index or builds it
+	 * @param prefix Key prefix
+	 * @param predicate Predicate on the indexed path
+	 * @param items The items
+	 * @return The index
+	 */
+	private Index getIndex(String prefix, Predicate predicate, Items items) {
+		String id = prefix + '\u0000' + predicate.pathString;
+		Index index = indexes.get(id);
+		if (index == null) {
+			index = new Index(prefix, predicate.path);
+			for (String key : items.getKeys(prefix)) {
+				index.update(key, parse(items.getItem(key)));
+			}
+			indexes.put(id, index);
+		}
+		return index;
+	}
+
+	/**
+	 * @param predicates Predicates
+	 * @param data Items data
+	 * @return The data matches all predicates
+	 */
+	private boolean matches(List<Predicate> predicates, String data) {
+		Object value = parse(data);
+		if (value == null) {
+			return false;
+		}
+		for (Predicate predicate : predicates) {
+			if (!predicate.matches(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param data JSON data or null
+	 * @return The parsed value or null if the data isn't valid JSON
+	 */
+	private Object parse(String data) {
+		if (data == null || data.length() == 0) {
+			return null;
+		}
+		try {
+			return json.parse(data);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param value A value
+	 * @param path Path segments
+	 * @return The value at the path or null
+	 */
+	private Object resolve(Object value, String[] path) {
+		for (String segment : path) {
+			if (value == null) {
+				return null;
+			}
+			value = json.get(value, segment);
+		}
+		return value;
+	}
+
+	/**
+	 * @param value A value or null
+	 * @return The canonical form or null if the value isn't a scalar
+	 * @see LocalStorageJson#canonical(Object)
+	 */
+	private String canonical(Object value) {
+		return value != null ? json.canonical(value) : null;
+	}
+
+	/**
+	 * Access to the queried items
+	 * @author Max Schuster
+	 */
+	public interface Items {
+
+		/**
+		 * @param prefix Key prefix
+		 * @return Keys of all items whose key starts with the prefix
+		 */
+		public Collection<String> getKeys(String prefix);
+
+		/**
+		 * @param key Items key
+		 * @return Items data or null
+		 */
+		public String getItem(String key);
+
+	}
+
+	/**
+	 * A compiled {@link Condition}
+	 * @author Max Schuster
+	 */
+	private class Predicate {
+
+		/**
+		 * The path as sent by the server-side
+		 */
+		private final String pathString;
+
+		/**
+		 * Path segments
+		 */
+		private final String[] path;
+
+		/**
+		 * Comparison operator
+		 */
+		private final Operator operator;
+
+		/**
+		 * Canonical form of the value to compare with
+		 */
+		private final String canonical;
+
+		/**
+		 * The number to compare with, if the value is a number
+		 */
+		private final double number;
+
+		/**
+		 * @param condition The condition
+		 */
+		public Predicate(Condition condition) {
+			pathString = condition.path;
+			path = condition.path.length() > 0 ? condition.path.split("\\.") : new String[0];
+			operator = condition.operator;
+			canonical = canonical(json.parse(condition.value));
+			number = canonical != null && canonical.charAt(0) == 'n'
+					? Double.parseDouble(canonical.substring(1)) : Double.NaN;
+		}
+
+		/**
+		 * @return The predicate can be answered by an index
+		 */
+		public boolean isIndexable() {
+			return operator == Operator.EQ && canonical != null;
+		}
+
+		/**
+		 * @param root Parsed data of an item
+		 * @return The data matches
+		 */
+		public boolean matches(Object root) {
+			String actual = canonical(resolve(root, path));
+			if (actual == null || canonical == null) {
+				return false;
+			}
+			if (operator == Operator.EQ) {
+				return canonical.equals(actual);
+			}
+			// Only numbers and strings are ordered, by their canonical type
+			char type = actual.charAt(0);
+			int comparison;
+			if (type != canonical.charAt(0)) {
+				return false;
+			} else if (type == 'n') {
+				comparison = Double.compare(Double.parseDouble(actual.substring(1)), number);
+			} else if (type == 's') {
+				comparison = actual.substring(1).compareTo(canonical.substring(1));
+			} else {
+				return false;
+			}
+			switch (operator) {
+			case LT:
+				return comparison < 0;
+			case LE:
+				return comparison <= 0;
+			case GT:
+				return comparison > 0;
+			case GE:
+				return comparison >= 0;
+			default:
+				return false;
+			}
+		}
+
+	}
+
+	/**
+	 * Index of the values at one path of all items with one key prefix
+	 * @author Max Schuster
+	 */
+	private class Index {
+
+		/**
+		 * Key prefix
+		 */
+		private final String prefix;
+
+		/**
+		 * Path segments
+		 */
+		private final String[] path;
+
+		/**
+		 * Keys by canonical value
+		 */
+		private final Map<String, Set<String>> keys = new HashMap<String, Set<String>>();
+
+		/**
+		 * Canonical value by key
+		 */
+		private final Map<String, String> values = new HashMap<String, String>();
+
+		/**
+		 * @param prefix Key prefix
+		 * @param path Path segments
+		 */
+		public Index(String prefix, String[] path) {
+			this.prefix = prefix;
+			this.path = path;
+		}
+
+		/**
+		 * @param canonical Canonical value
+		 * @return Keys of the items with this value
+		 */
+		public Collection<String> get(String canonical) {
+			Set<String> result = keys.get(canonical);
+			return result != null ? new ArrayList<String>(result) : new ArrayList<String>(0);
+		}
+
+		/**
+		 * @param key Items key
+		 * @param root Parsed data of the item or null
+		 */
+		public void update(String key, Object root) {
+			String oldValue = values.remove(key);
+			if (oldValue != null) {
+				Set<String> old = keys.get(oldValue);
+				old.remove(key);
+				if (old.isEmpty()) {
+					keys.remove(oldValue);
+				}
+			}
+			String value = root != null ? canonical(resolve(root, path)) : null;
+			if (value != null) {
+				values.put(key, value);
+				Set<String> set = keys.get(value);
+				if (set == null) {
+					set = new HashSet<String>();
+					keys.put(value, set);
+				}
+				set.add(key);
+			}
+		}
+
+		/**
+		 * Removes all entries
+		 */
+		public void clear() {
+			keys.clear();
+			values.clear();
+		}
+
+	}
+
+}
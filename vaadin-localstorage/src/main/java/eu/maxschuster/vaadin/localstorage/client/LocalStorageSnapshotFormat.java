@@ -0,0 +1,51 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.LocalStorageSnapshotFormat.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.maxschuster.vaadin.localstorage.client;
+
+import java.util.List;
+
+/**
+ * Binary format of the snapshots of the {@link LocalStorageExecutor}. An
+ * interface, so the executor doesn't reference the compressor and it can
+ * be loaded on first use.
+ * @author Max Schuster
+ * @see CompressedSnapshotFormat
+ */
+public interface LocalStorageSnapshotFormat {
+	
+	/**
+	 * Encodes the items
+	 * @param keyPrefix Key prefix of the snapshot
+	 * @param keys Items keys
+	 * @param data Items data
+	 * @return The encoded snapshot
+	 */
+	public byte[] encode(String keyPrefix, List<String> keys, List<String> data);
+	
+	/**
+	 * Decodes the items
+	 * @param bytes The encoded snapshot
+	 * @param keys Receives the items keys
+	 * @param data Receives the items data
+	 * @return Key prefix of the snapshot
+	 * @throws IllegalArgumentException The bytes are not a valid snapshot
+	 */
+	public String decode(byte[] bytes, List<String> keys, List<String> data)
+			throws IllegalArgumentException;
+	
+}
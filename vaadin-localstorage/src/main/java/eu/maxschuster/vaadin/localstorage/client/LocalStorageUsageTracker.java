@@ -0,0 +1,218 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.LocalStorageUsageTracker.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the bytes and items used in a {@link LocalStorageBackend}, in total
+ * and per key prefix. Keys and prefixes are the keys of the backend, the
+ * key namespaces of named instances included, so the totals are those of
+ * the whole origin.
+ * <p>The storage gets scanned once when the usage is requested for the
+ * first time, new prefixes get scanned once when they are requested for the
+ * first time. Afterwards every change of the storage has to be reported
+ * with {@link #onItemChanged(String, String, String)}. Sizes are in bytes
+ * of UTF-16.</p>
+ * @author Max Schuster
+ */
+public class LocalStorageUsageTracker {
+
+	/**
+	 * Initial quota estimate: 5M characters, the limit of most browsers
+	 */
+	private static final int DEFAULT_QUOTA_BYTES = 5 * 1024 * 1024 * 2;
+
+	/**
+	 * The totals are known
+	 */
+	private boolean initialized = false;
+
+	/**
+	 * Bytes used by all items
+	 */
+	private int usedBytes = 0;
+
+	/**
+	 * Number of all items
+	 */
+	private int itemCount = 0;
+
+	/**
+	 * Estimated quota in bytes
+	 */
+	private int estimatedQuotaBytes = DEFAULT_QUOTA_BYTES;
+
+	/**
+	 * Bytes and items of each tracked prefix
+	 */
+	private final Map<String, int[]> prefixes = new HashMap<String, int[]>();
+
+	/**
+	 * Makes sure the totals and the given prefixes are tracked
+	 * @param storage The storage
+	 * @param requested Requested prefixes
+	 */
+	public void track(LocalStorageBackend storage, List<String> requested) {
+		List<String> missing = new ArrayList<String>();
+		for (String prefix : requested) {
+			if (!prefixes.containsKey(prefix) && !missing.contains(prefix)) {
+				missing.add(prefix);
+			}
+		}
+		if (initialized && missing.isEmpty()) {
+			return;
+		}
+		for (String prefix : missing) {
+			prefixes.put(prefix, new int[2]);
+		}
+		int length = storage.getLength();
+		int bytes = 0;
+		for (int i = 0; i < length; i++) {
+			String key = storage.key(i);
+			String data = key != null ? storage.getItem(key) : null;
+			if (data != null) {
+				int size = size(key, data);
+				bytes += size;
+				for (String prefix : missing) {
+					if (key.startsWith(prefix)) {
+						int[] stats = prefixes.get(prefix);
+						stats[0] += size;
+						stats[1]++;
+					}
+				}
+			}
+		}
+		if (!initialized) {
+			usedBytes = bytes;
+			itemCount = length;
+			initialized = true;
+		}
+	}
+
+	/**
+	 * Updates the usage after an item has changed. Ignored until the
+	 * usage has been requested.
+	 * @param key Items key
+	 * @param oldData Items old data or null
+	 * @param data Items new data or null
+	 */
+	public void onItemChanged(String key, String oldData, String data) {
+		if (!initialized) {
+			return;
+		}
+		int delta = size(key, data) - size(key, oldData);
+		int count = (data != null ? 1 : 0) - (oldData != null ? 1 : 0);
+		usedBytes += delta;
+		itemCount += count;
+		for (Map.Entry<String, int[]> entry : prefixes.entrySet()) {
+			if (key.startsWith(entry.getKey())) {
+				entry.getValue()[0] += delta;
+				entry.getValue()[1] += count;
+			}
+		}
+	}
+
+	/**
+	 * Resets the usage after the storage has been cleared
+	 */
+	public void onClear() {
+		usedBytes = 0;
+		itemCount = 0;
+		for (int[] stats : prefixes.values()) {
+			stats[0] = 0;
+			stats[1] = 0;
+		}
+	}
+
+	/**
+	 * Lowers the quota estimate to the current usage after a write has
+	 * failed
+	 */
+	public void onQuotaExceeded() {
+		if (initialized) {
+			estimatedQuotaBytes = Math.min(estimatedQuotaBytes, usedBytes);
+		}
+	}
+
+	/**
+	 * Forgets the usage, it gets rescanned on the next request
+	 */
+	public void invalidate() {
+		initialized = false;
+		prefixes.clear();
+	}
+
+	/**
+	 * @return Changes have to be reported
+	 */
+	public boolean isTracking() {
+		return initialized;
+	}
+
+	/**
+	 * @return Bytes used by all items
+	 */
+	public int getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * @return Number of all items
+	 */
+	public int getItemCount() {
+		return itemCount;
+	}
+
+	/**
+	 * @return Estimated quota in bytes
+	 */
+	public int getEstimatedQuotaBytes() {
+		return Math.max(estimatedQuotaBytes, usedBytes);
+	}
+
+	/**
+	 * @param prefix A tracked prefix
+	 * @return Bytes used by the items of the prefix
+	 */
+	public int getUsedBytes(String prefix) {
+		return prefixes.get(prefix)[0];
+	}
+
+	/**
+	 * @param prefix A tracked prefix
+	 * @return Number of items of the prefix
+	 */
+	public int getItemCount(String prefix) {
+		return prefixes.get(prefix)[1];
+	}
+
+	/**
+	 * @param key Items key
+	 * @param data Items data or null
+	 * @return Bytes used by the item
+	 */
+	private static int size(String key, String data) {
+		return data != null ? 2 * (key.length() + data.length()) : 0;
+	}
+
+}
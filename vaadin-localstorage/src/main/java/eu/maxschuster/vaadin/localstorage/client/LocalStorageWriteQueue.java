@@ -0,0 +1,168 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.LocalStorageWriteQueue.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Queue of deferred writes. Writes to the same key are merged, only the
+ * latest data gets written but all callbacks are kept.
+ * @author Max Schuster
+ */
+public class LocalStorageWriteQueue {
+	
+	/**
+	 * Pending writes in insertion order
+	 */
+	private final Map<String, PendingWrite> pending = new LinkedHashMap<String, PendingWrite>();
+	
+	/**
+	 * Adds a write. Replaces the data of a pending write to the same key.
+	 * @param key Items key
+	 * @param data Items data. If data is null the item will get removed.
+	 * @param callback Callback id. If &lt; 0 no callback will get triggered.
+	 * @param oldData Items data before this write
+	 */
+	public void add(String key, String data, int callback, String oldData) {
+		PendingWrite write = pending.get(key);
+		if (write == null) {
+			write = new PendingWrite(key);
+			pending.put(key, write);
+		}
+		write.data = data;
+		if (callback > -1) {
+			write.callbacks.add(callback);
+			write.oldData.add(oldData);
+		}
+	}
+	
+	/**
+	 * @param key Items key
+	 * @return A write to the given key is pending
+	 */
+	public boolean contains(String key) {
+		return pending.containsKey(key);
+	}
+	
+	/**
+	 * @param key Items key
+	 * @return The pending data of the given key
+	 */
+	public String get(String key) {
+		PendingWrite write = pending.get(key);
+		return write != null ? write.data : null;
+	}
+	
+	/**
+	 * @return Keys of the pending writes
+	 */
+	public Set<String> getKeys() {
+		return pending.keySet();
+	}
+	
+	/**
+	 * @return No writes are pending
+	 */
+	public boolean isEmpty() {
+		return pending.isEmpty();
+	}
+	
+	/**
+	 * Removes the oldest pending write
+	 * @return The oldest pending write or null if the queue is empty
+	 */
+	public PendingWrite poll() {
+		Iterator<PendingWrite> iterator = pending.values().iterator();
+		if (!iterator.hasNext()) {
+			return null;
+		}
+		PendingWrite write = iterator.next();
+		iterator.remove();
+		return write;
+	}
+	
+	/**
+	 * A merged write of a single key
+	 * @author Max Schuster
+	 */
+	public static class PendingWrite {
+		
+		/**
+		 * Items key
+		 */
+		private final String key;
+		
+		/**
+		 * Latest data
+		 */
+		private String data;
+		
+		/**
+		 * Callback ids of the merged writes
+		 */
+		private final List<Integer> callbacks = new ArrayList<Integer>();
+		
+		/**
+		 * Old data for each callback
+		 */
+		private final List<String> oldData = new ArrayList<String>();
+		
+		/**
+		 * @param key Items key
+		 */
+		private PendingWrite(String key) {
+			this.key = key;
+		}
+
+		/**
+		 * @return Items key
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return Latest data. If null the item will get removed.
+		 */
+		public String getData() {
+			return data;
+		}
+		
+		/**
+		 * @return Callback ids of the merged writes
+		 */
+		public List<Integer> getCallbacks() {
+			return callbacks;
+		}
+		
+		/**
+		 * @return Old data for each callback
+		 */
+		public List<String> getOldData() {
+			return oldData;
+		}
+		
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.MemoryStorageBackend.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link LocalStorageBackend} that keeps the items in memory. Allows to run
+ * and benchmark the client-side logic on the JVM.
+ * @author Max Schuster
+ */
+public class MemoryStorageBackend implements LocalStorageBackend {
+	
+	/**
+	 * The items in insertion order
+	 */
+	private final Map<String, String> items = new LinkedHashMap<String, String>();
+	
+	/**
+	 * Maximum number of characters of all keys and data or -1
+	 */
+	private final int quota;
+	
+	/**
+	 * Number of characters of all keys and data
+	 */
+	private int used = 0;
+	
+	/**
+	 * Keys by index. Null after a change.
+	 */
+	private List<String> keys = null;
+	
+	/**
+	 * Creates a backend without quota
+	 */
+	public MemoryStorageBackend() {
+		this(-1);
+	}
+	
+	/**
+	 * @param quota Maximum number of characters of all keys and data or -1
+	 */
+	public MemoryStorageBackend(int quota) {
+		this.quota = quota;
+	}
+
+	@Override
+	public boolean isSupported() {
+		return true;
+	}
+
+	@Override
+	public String getItem(String key) {
+		return items.get(key);
+	}
+
+	@Override
+	public void setItem(String key, String data) {
+		String oldData = items.get(key);
+		int size = used + key.length() + data.length()
+				- (oldData != null ? key.length() + oldData.length() : 0);
+		if (quota > -1 && size > quota) {
+			throw new IllegalStateException("Quota exceeded");
+		}
+		if (oldData == null) {
+			keys = null;
+		}
+		items.put(key, data);
+		used = size;
+	}
+
+	@Override
+	public void removeItem(String key) {
+		String oldData = items.remove(key);
+		if (oldData != null) {
+			used -= key.length() + oldData.length();
+			keys = null;
+		}
+	}
+
+	@Override
+	public void clear() {
+		items.clear();
+		used = 0;
+		keys = null;
+	}
+
+	@Override
+	public int getLength() {
+		return items.size();
+	}
+
+	@Override
+	public String key(int index) {
+		if (keys == null) {
+			keys = new ArrayList<String>(items.keySet());
+		}
+		return index > -1 && index < keys.size() ? keys.get(index) : null;
+	}
+
+}
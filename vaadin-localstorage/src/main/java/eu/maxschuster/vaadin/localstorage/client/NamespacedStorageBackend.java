@@ -0,0 +1,146 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.client.NamespacedStorageBackend.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link LocalStorageBackend} that stores the items under a key namespace
+ * of another backend. Keys passed in and returned are without the
+ * namespace, {@link #clear()} only removes the items of the namespace.
+ * @author Max Schuster
+ */
+public class NamespacedStorageBackend implements LocalStorageBackend {
+	
+	/**
+	 * The backend holding the items
+	 */
+	private final LocalStorageBackend storage;
+	
+	/**
+	 * Prefix of the keys in the {@link #storage}
+	 */
+	private String namespace = "";
+	
+	/**
+	 * Keys of the namespace by index as of the last {@link #getLength()}.
+	 * Null if every key belongs to the namespace.
+	 */
+	private List<String> keys = null;
+	
+	/**
+	 * @param storage The backend holding the items
+	 */
+	public NamespacedStorageBackend(LocalStorageBackend storage) {
+		this.storage = storage;
+	}
+	
+	/**
+	 * @return Prefix of the keys in the backend holding the items
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+	
+	/**
+	 * @param namespace Prefix of the keys in the backend holding the items
+	 */
+	public void setNamespace(String namespace) {
+		this.namespace = namespace;
+		keys = null;
+	}
+	
+	/**
+	 * @param storageKey Key in the backend holding the items
+	 * @return The key without namespace or null if it belongs to another
+	 * namespace
+	 */
+	public String toKey(String storageKey) {
+		return storageKey.startsWith(namespace)
+				? storageKey.substring(namespace.length()) : null;
+	}
+
+	@Override
+	public boolean isSupported() {
+		return storage.isSupported();
+	}
+
+	@Override
+	public String getItem(String key) {
+		return storage.getItem(namespace + key);
+	}
+
+	@Override
+	public void setItem(String key, String data) {
+		storage.setItem(namespace + key, data);
+	}
+
+	@Override
+	public void removeItem(String key) {
+		storage.removeItem(namespace + key);
+	}
+
+	@Override
+	public void clear() {
+		if (namespace.length() == 0) {
+			storage.clear();
+			return;
+		}
+		for (String key : scan()) {
+			storage.removeItem(namespace + key);
+		}
+	}
+
+	@Override
+	public int getLength() {
+		if (namespace.length() == 0) {
+			return storage.getLength();
+		}
+		keys = scan();
+		return keys.size();
+	}
+
+	@Override
+	public String key(int index) {
+		if (namespace.length() == 0) {
+			return storage.key(index);
+		}
+		if (keys == null) {
+			keys = scan();
+		}
+		return index > -1 && index < keys.size() ? keys.get(index) : null;
+	}
+	
+	/**
+	 * @return The keys of the namespace, without namespace
+	 */
+	private List<String> scan() {
+		List<String> result = new ArrayList<String>();
+		int length = storage.getLength();
+		for (int i = 0; i < length; i++) {
+			String key = storage.key(i);
+			if (key != null && key.startsWith(namespace)) {
+				result.add(key.substring(namespace.length()));
+			}
+		}
+		return result;
+	}
+
+}
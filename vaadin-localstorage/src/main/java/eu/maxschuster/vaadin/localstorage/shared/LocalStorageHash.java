@@ -0,0 +1,54 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.shared.LocalStorageHash.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.shared;
+
+/**
+ * Content hash of item data that is computed identically on the
+ * server-side and in the browser. Used for conditional reads.
+ * @author Max Schuster
+ */
+public final class LocalStorageHash {
+	
+	private LocalStorageHash() { }
+	
+	/**
+	 * Hashes the given data.
+	 * <p>Combines the length, {@link String#hashCode()} and a FNV-1a hash
+	 * of the UTF-16 code units.</p>
+	 * @param data Items data
+	 * @return The hash or null if data is null
+	 */
+	public static String hash(String data) {
+		if (data == null) {
+			return null;
+		}
+		int length = data.length();
+		int fnv = 0x811c9dc5;
+		for (int i = 0; i < length; i++) {
+			fnv ^= data.charAt(i);
+			// fnv *= 0x01000193 without an int multiplication, which
+			// loses precision in compiled JavaScript
+			fnv = fnv + (fnv << 1) + (fnv << 4) + (fnv << 7) + (fnv << 8) + (fnv << 24);
+		}
+		return Integer.toHexString(length) + ":" +
+				Integer.toHexString(data.hashCode()) + ":" +
+				Integer.toHexString(fnv);
+	}
+	
+}
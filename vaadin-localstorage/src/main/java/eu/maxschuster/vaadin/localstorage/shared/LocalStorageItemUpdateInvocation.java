@@ -0,0 +1,66 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.shared.LocalStorageItemUpdateInvocation.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.shared;
+
+import com.vaadin.shared.communication.MethodInvocation;
+
+/**
+ * Delayed {@link LocalStorageServerRpc#triggerItemUpdateEvent(String, String, String)}
+ * or {@link LocalStorageServerRpc#triggerItemChangedEvent(String, boolean)}
+ * call. Its last-only tag contains the key, so a queued call only gets
+ * replaced by a later call of the same method for the same key. A call for
+ * a cleared storage only replaces another one for a cleared storage.
+ * @author Max Schuster
+ */
+@SuppressWarnings("serial")
+public class LocalStorageItemUpdateInvocation extends MethodInvocation {
+	
+	/**
+	 * Items key or null if the storage has been cleared
+	 */
+	private final String key;
+	
+	/**
+	 * @param connectorId Id of the connector
+	 * @param methodName Name of the {@link LocalStorageServerRpc} method
+	 * @param key Items key or null if the storage has been cleared
+	 * @param parameters Parameters of the method
+	 */
+	public LocalStorageItemUpdateInvocation(String connectorId, String methodName, String key,
+			Object... parameters) {
+		super(connectorId, LocalStorageServerRpc.class.getName(), methodName, parameters);
+		this.key = key;
+	}
+	
+	/**
+	 * @return Items key or null if the storage has been cleared
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.vaadin.shared.communication.MethodInvocation#getLastOnlyTag()
+	 */
+	@Override
+	public String getLastOnlyTag() {
+		return super.getLastOnlyTag() + (key != null ? "-key-" + key : "-clear");
+	}
+	
+}
@@ -0,0 +1,298 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.shared;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query over the JSON data of all items whose key starts with a prefix.
+ * The query gets evaluated on the client-side, only matching items are sent
+ * back.
+ * <p>Conditions are combined with AND. A path addresses a value inside the
+ * JSON data, its segments are separated by dots. Numeric segments address
+ * array elements. The empty path addresses the data itself. Items whose
+ * data isn't valid JSON or doesn't contain the path don't match.</p>
+ * <pre>
+ * new LocalStorageQuery("user.").eq("address.city", "Berlin").ge("age", 18)
+ * </pre>
+ * @author Max Schuster
+ */
+@SuppressWarnings("serial")
+public class LocalStorageQuery implements Serializable {
+
+	/**
+	 * Comparison operator of a {@link Condition}. Range operators compare
+	 * numbers numerically and strings lexicographically, other values never
+	 * match.
+	 * @author Max Schuster
+	 */
+	public enum Operator {
+		EQ,
+		LT,
+		LE,
+		GT,
+		GE
+	}
+
+	/**
+	 * Only items whose key starts with this prefix are queried
+	 */
+	public String keyPrefix = "";
+
+	/**
+	 * Conditions that must all match
+	 */
+	public List<Condition> conditions = new ArrayList<Condition>();
+
+	/**
+	 * Only the keys of the matching items are sent back
+	 */
+	public boolean keysOnly = false;
+
+	/**
+	 * The client-side may answer the first {@link Operator#EQ} condition
+	 * from an index that it builds on first use and keeps up to date on
+	 * writes
+	 */
+	public boolean indexed = false;
+
+	public LocalStorageQuery() {
+
+	}
+
+	/**
+	 * @param keyPrefix Only items whose key starts with this prefix are queried
+	 */
+	public LocalStorageQuery(String keyPrefix) {
+		this.keyPrefix = keyPrefix;
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must equal this string
+	 * @return This query
+	 */
+	public LocalStorageQuery eq(String path, String value) {
+		return where(path, Operator.EQ, value != null ? quote(value) : "null");
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must equal this number
+	 * @return This query
+	 */
+	public LocalStorageQuery eq(String path, double value) {
+		return where(path, Operator.EQ, number(value));
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must equal this boolean
+	 * @return This query
+	 */
+	public LocalStorageQuery eq(String path, boolean value) {
+		return where(path, Operator.EQ, String.valueOf(value));
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must be less than this number
+	 * @return This query
+	 */
+	public LocalStorageQuery lt(String path, double value) {
+		return where(path, Operator.LT, number(value));
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must be less than or equal to this number
+	 * @return This query
+	 */
+	public LocalStorageQuery le(String path, double value) {
+		return where(path, Operator.LE, number(value));
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must be greater than this number
+	 * @return This query
+	 */
+	public LocalStorageQuery gt(String path, double value) {
+		return where(path, Operator.GT, number(value));
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must be greater than or equal to this number
+	 * @return This query
+	 */
+	public LocalStorageQuery ge(String path, double value) {
+		return where(path, Operator.GE, number(value));
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must be less than this string
+	 * @return This query
+	 */
+	public LocalStorageQuery lt(String path, String value) {
+		return where(path, Operator.LT, quote(value));
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must be less than or equal to this string
+	 * @return This query
+	 */
+	public LocalStorageQuery le(String path, String value) {
+		return where(path, Operator.LE, quote(value));
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must be greater than this string
+	 * @return This query
+	 */
+	public LocalStorageQuery gt(String path, String value) {
+		return where(path, Operator.GT, quote(value));
+	}
+
+	/**
+	 * @param path JSON path
+	 * @param value The value must be greater than or equal to this string
+	 * @return This query
+	 */
+	public LocalStorageQuery ge(String path, String value) {
+		return where(path, Operator.GE, quote(value));
+	}
+
+	/**
+	 * Adds a condition
+	 * @param path JSON path
+	 * @param operator Comparison operator
+	 * @param value JSON literal to compare with
+	 * @return This query
+	 */
+	public LocalStorageQuery where(String path, Operator operator, String value) {
+		if (path == null || operator == null || value == null) {
+			throw new NullPointerException();
+		}
+		conditions.add(new Condition(path, operator, value));
+		return this;
+	}
+
+	/**
+	 * Only the keys of the matching items are sent back
+	 * @return This query
+	 */
+	public LocalStorageQuery keysOnly() {
+		keysOnly = true;
+		return this;
+	}
+
+	/**
+	 * Allows the client-side to answer this query from an index
+	 * @return This query
+	 * @see #indexed
+	 */
+	public LocalStorageQuery useIndex() {
+		indexed = true;
+		return this;
+	}
+
+	/**
+	 * @param value A number
+	 * @return JSON literal of the number
+	 */
+	private static String number(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("JSON doesn't support " + value);
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return String.valueOf((long) value);
+		}
+		return String.valueOf(value);
+	}
+
+	/**
+	 * @param value A string
+	 * @return JSON literal of the string
+	 */
+	private static String quote(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				String hex = Integer.toHexString(c);
+				sb.append("\\u00");
+				if (hex.length() < 2) {
+					sb.append('0');
+				}
+				sb.append(hex);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * A single condition of a {@link LocalStorageQuery}
+	 * @author Max Schuster
+	 */
+	public static class Condition implements Serializable {
+
+		/**
+		 * JSON path of the compared value
+		 */
+		public String path;
+
+		/**
+		 * Comparison operator
+		 */
+		public Operator operator;
+
+		/**
+		 * JSON literal to compare with
+		 */
+		public String value;
+
+		public Condition() {
+
+		}
+
+		/**
+		 * @param path JSON path of the compared value
+		 * @param operator Comparison operator
+		 * @param value JSON literal to compare with
+		 */
+		public Condition(String path, Operator operator, String value) {
+			this.path = path;
+			this.operator = operator;
+			this.value = value;
+		}
+
+	}
+
+}
@@ -18,6 +18,8 @@
 
 package eu.maxschuster.vaadin.localstorage.shared;
 
+import java.util.List;
+
 import com.vaadin.shared.communication.ServerRpc;
 
 /**
@@ -31,12 +33,70 @@ public interface LocalStorageServerRpc extends ServerRpc {
 	 * @param success Action was success full
 	 * @param key Items key
 	 * @param oldData Items old data
-	 * @param data Items new data
+	 * @param data Items new data. Always null for writes, the server side
+	 * already knows the written data.
 	 */
 	public void callLocalStorageItemCallback(
 			int callback, boolean success,
 			String key, String oldData, String data);
 	
+	/**
+	 * Answers a conditional read whose data equals the data known by the
+	 * server side.
+	 * @param callback Callback id
+	 * @param key Items key
+	 */
+	public void callLocalStorageItemUnchangedCallback(int callback, String key);
+	
+	/**
+	 * Answers a {@link LocalStorageQuery}
+	 * @param callback Callback id
+	 * @param success Query was successful
+	 * @param keys Keys of the matching items
+	 * @param data Data of the matching items or null if the query requested
+	 * only the keys
+	 */
+	public void callLocalStorageQueryCallback(int callback, boolean success,
+			List<String> keys, List<String> data);
+	
+	/**
+	 * Answers a usage request. Sizes are in bytes of UTF-16.
+	 * @param callback Callback id
+	 * @param success Usage could be determined
+	 * @param usedBytes Bytes used by all items
+	 * @param itemCount Number of all items
+	 * @param estimatedQuotaBytes Estimated quota
+	 * @param prefixBytes Bytes used by the items of each requested prefix
+	 * @param prefixItemCounts Number of items of each requested prefix
+	 */
+	public void callLocalStorageUsageCallback(int callback, boolean success,
+			int usedBytes, int itemCount, int estimatedQuotaBytes,
+			List<Integer> prefixBytes, List<Integer> prefixItemCounts);
+	
+	/**
+	 * Answers a snapshot or restore step
+	 * @param callback Callback id
+	 * @param success Step was successful
+	 * @param chunk Next chunk of a snapshot, encoded by
+	 * {@link LocalStorageBinaryCodec}. Null when answering a restore step.
+	 * @param last The transfer is complete
+	 */
+	public void callLocalStorageSnapshotCallback(int callback, boolean success,
+			String chunk, boolean last);
+	
 	public void triggerItemUpdateEvent(String key, String oldData, String data);
 	
+	/**
+	 * Reports a change without its data
+	 * @param key Items key or null if the storage has been cleared
+	 * @param removed The item has been removed
+	 */
+	public void triggerItemChangedEvent(String key, boolean removed);
+	
+	/**
+	 * Requests another round trip, the server side has more operations to
+	 * send
+	 */
+	public void poll();
+	
 }
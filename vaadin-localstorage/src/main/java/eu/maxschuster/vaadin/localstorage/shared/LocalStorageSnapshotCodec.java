@@ -0,0 +1,319 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.shared.LocalStorageSnapshotCodec.java
+ * 
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage.shared;
+
+import java.util.List;
+
+/**
+ * Encodes the items of a localStorage snapshot into compressed bytes.
+ * <p>Format: the magic bytes <code>LSS</code>, a version byte, the number
+ * of uncompressed UTF-16 code units as 32 bit integer, then the compressed
+ * code units as 16 bit big-endian values. The uncompressed code units hold
+ * the key prefix of the snapshot, the number of items and the key and data
+ * of each item, every string preceded by its length.</p>
+ * <p>The compression replaces repeated sequences of at least three code
+ * units within the last 65535 code units by a reference, like LZ77. It is
+ * fast enough for the browser and works well on JSON data.</p>
+ * <p>Both directions work on the whole snapshot in memory. The length in
+ * the header is checked against the most the compressed code units can
+ * expand to before anything gets allocated.</p>
+ * <p>Only uses classes that are available on the client-side.</p>
+ * @author Max Schuster
+ */
+public final class LocalStorageSnapshotCodec {
+	
+	/**
+	 * Format version
+	 */
+	private static final int VERSION = 1;
+	
+	/**
+	 * Bytes before the compressed code units
+	 */
+	private static final int HEADER_LENGTH = 8;
+	
+	/**
+	 * Shortest sequence that gets replaced by a reference
+	 */
+	private static final int MIN_MATCH = 3;
+	
+	/**
+	 * Longest sequence that gets replaced by a reference
+	 */
+	private static final int MAX_MATCH = 0x7FFF + MIN_MATCH;
+	
+	/**
+	 * Maximum distance of a reference
+	 */
+	private static final int MAX_OFFSET = 0xFFFF;
+	
+	/**
+	 * Maximum number of literal code units after one control unit
+	 */
+	private static final int MAX_LITERALS = 0x8000;
+	
+	/**
+	 * Bits of the hash of three code units
+	 */
+	private static final int HASH_BITS = 15;
+	
+	private LocalStorageSnapshotCodec() { }
+	
+	/**
+	 * Encodes the items
+	 * @param keyPrefix Key prefix of the snapshot
+	 * @param keys Items keys
+	 * @param data Items data
+	 * @return The encoded snapshot
+	 */
+	public static byte[] encode(String keyPrefix, List<String> keys, List<String> data) {
+		StringBuilder plain = new StringBuilder();
+		appendString(plain, keyPrefix);
+		appendInt(plain, keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			appendString(plain, keys.get(i));
+			appendString(plain, data.get(i));
+		}
+		String compressed = compress(plain.toString());
+		
+		byte[] bytes = new byte[HEADER_LENGTH + compressed.length() * 2];
+		bytes[0] = 'L';
+		bytes[1] = 'S';
+		bytes[2] = 'S';
+		bytes[3] = VERSION;
+		int length = plain.length();
+		bytes[4] = (byte) (length >>> 24);
+		bytes[5] = (byte) (length >>> 16);
+		bytes[6] = (byte) (length >>> 8);
+		bytes[7] = (byte) length;
+		for (int i = 0, pos = HEADER_LENGTH; i < compressed.length(); i++) {
+			char c = compressed.charAt(i);
+			bytes[pos++] = (byte) (c >>> 8);
+			bytes[pos++] = (byte) c;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Decodes the items
+	 * @param bytes The encoded snapshot
+	 * @param keys Receives the items keys
+	 * @param data Receives the items data
+	 * @return Key prefix of the snapshot
+	 * @throws IllegalArgumentException The bytes are not a valid snapshot
+	 */
+	public static String decode(byte[] bytes, List<String> keys, List<String> data)
+			throws IllegalArgumentException {
+		if (bytes.length < HEADER_LENGTH || bytes[0] != 'L' || bytes[1] != 'S'
+				|| bytes[2] != 'S') {
+			throw new IllegalArgumentException("Not a snapshot");
+		}
+		if (bytes[3] != VERSION) {
+			throw new IllegalArgumentException("Unsupported version " + bytes[3]);
+		}
+		if ((bytes.length - HEADER_LENGTH) % 2 != 0) {
+			throw new IllegalArgumentException("Truncated snapshot");
+		}
+		int length = ((bytes[4] & 0xFF) << 24) | ((bytes[5] & 0xFF) << 16)
+				| ((bytes[6] & 0xFF) << 8) | (bytes[7] & 0xFF);
+		char[] plain = decompress(bytes, length);
+		
+		int[] pos = new int[1];
+		String keyPrefix = readString(plain, pos);
+		int count = readInt(plain, pos);
+		for (int i = 0; i < count; i++) {
+			keys.add(readString(plain, pos));
+			data.add(readString(plain, pos));
+		}
+		if (pos[0] != plain.length) {
+			throw new IllegalArgumentException("Unexpected data after the items");
+		}
+		return keyPrefix;
+	}
+	
+	/**
+	 * @param input Code units
+	 * @return Literal runs and references
+	 */
+	private static String compress(String input) {
+		int n = input.length();
+		StringBuilder out = new StringBuilder(n / 2 + 16);
+		// Last position + 1 of each hash, 0 if none
+		int[] table = new int[1 << HASH_BITS];
+		int literals = 0;
+		int i = 0;
+		while (i + MIN_MATCH <= n) {
+			char a = input.charAt(i);
+			char b = input.charAt(i + 1);
+			char c = input.charAt(i + 2);
+			int hash = ((a * 0x9E37) ^ (b * 0x3C1) ^ c) & ((1 << HASH_BITS) - 1);
+			int candidate = table[hash] - 1;
+			table[hash] = i + 1;
+			if (candidate >= 0 && i - candidate <= MAX_OFFSET
+					&& input.charAt(candidate) == a
+					&& input.charAt(candidate + 1) == b
+					&& input.charAt(candidate + 2) == c) {
+				int length = MIN_MATCH;
+				while (i + length < n && length < MAX_MATCH
+						&& input.charAt(candidate + length) == input.charAt(i + length)) {
+					length++;
+				}
+				appendLiterals(out, input, i - literals, i);
+				out.append((char) (0x8000 | (length - MIN_MATCH)));
+				out.append((char) (i - candidate));
+				i += length;
+				literals = 0;
+			} else {
+				i++;
+				literals++;
+			}
+		}
+		appendLiterals(out, input, i - literals, n);
+		return out.toString();
+	}
+	
+	/**
+	 * @param bytes The encoded snapshot
+	 * @param length Number of uncompressed code units
+	 * @return The uncompressed code units
+	 */
+	private static char[] decompress(byte[] bytes, int length) {
+		// Every reference takes two code units and yields at most
+		// MAX_MATCH, so a larger header length can't be valid
+		long maxLength = (long) (bytes.length - HEADER_LENGTH) / 4 * MAX_MATCH
+				+ (bytes.length - HEADER_LENGTH) / 2;
+		if (length < 0 || length > maxLength) {
+			throw new IllegalArgumentException("Invalid length");
+		}
+		char[] out = new char[length];
+		int pos = 0;
+		int in = HEADER_LENGTH;
+		while (in < bytes.length) {
+			int control = readUnit(bytes, in);
+			in += 2;
+			if (control < 0x8000) {
+				int count = control + 1;
+				if (pos + count > length || in + count * 2 > bytes.length) {
+					throw new IllegalArgumentException("Literals out of range");
+				}
+				for (int i = 0; i < count; i++, in += 2) {
+					out[pos++] = (char) readUnit(bytes, in);
+				}
+			} else {
+				if (in + 2 > bytes.length) {
+					throw new IllegalArgumentException("Truncated reference");
+				}
+				int count = (control & 0x7FFF) + MIN_MATCH;
+				int offset = readUnit(bytes, in);
+				in += 2;
+				if (offset == 0 || offset > pos || pos + count > length) {
+					throw new IllegalArgumentException("Reference out of range");
+				}
+				// May overlap, so copy one by one
+				for (int i = 0; i < count; i++, pos++) {
+					out[pos] = out[pos - offset];
+				}
+			}
+		}
+		if (pos != length) {
+			throw new IllegalArgumentException("Truncated snapshot");
+		}
+		return out;
+	}
+	
+	/**
+	 * Appends literal runs
+	 * @param out The output
+	 * @param input The input
+	 * @param start First literal
+	 * @param end End of the literals
+	 */
+	private static void appendLiterals(StringBuilder out, String input, int start, int end) {
+		while (start < end) {
+			int count = Math.min(end - start, MAX_LITERALS);
+			out.append((char) (count - 1));
+			out.append(input, start, start + count);
+			start += count;
+		}
+	}
+	
+	/**
+	 * @param bytes Bytes
+	 * @param index Index of the first byte
+	 * @return The 16 bit big-endian value
+	 */
+	private static int readUnit(byte[] bytes, int index) {
+		return ((bytes[index] & 0xFF) << 8) | (bytes[index + 1] & 0xFF);
+	}
+	
+	/**
+	 * @param sb Target
+	 * @param value Value as two code units
+	 */
+	private static void appendInt(StringBuilder sb, int value) {
+		sb.append((char) (value >>> 16));
+		sb.append((char) value);
+	}
+	
+	/**
+	 * @param sb Target
+	 * @param value String preceded by its length, -1 for null
+	 */
+	private static void appendString(StringBuilder sb, String value) {
+		if (value == null) {
+			appendInt(sb, -1);
+		} else {
+			appendInt(sb, value.length());
+			sb.append(value);
+		}
+	}
+	
+	/**
+	 * @param plain Code units
+	 * @param pos Position, gets advanced
+	 * @return The value
+	 */
+	private static int readInt(char[] plain, int[] pos) {
+		if (pos[0] + 2 > plain.length) {
+			throw new IllegalArgumentException("Truncated snapshot");
+		}
+		int value = (plain[pos[0]] << 16) | plain[pos[0] + 1];
+		pos[0] += 2;
+		return value;
+	}
+	
+	/**
+	 * @param plain Code units
+	 * @param pos Position, gets advanced
+	 * @return The string or null
+	 */
+	private static String readString(char[] plain, int[] pos) {
+		int length = readInt(plain, pos);
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || pos[0] + length > plain.length) {
+			throw new IllegalArgumentException("Truncated snapshot");
+		}
+		String value = new String(plain, pos[0], length);
+		pos[0] += length;
+		return value;
+	}
+	
+}
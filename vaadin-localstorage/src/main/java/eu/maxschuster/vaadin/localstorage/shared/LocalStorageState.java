@@ -34,4 +34,33 @@ public class LocalStorageState extends SharedState {
 	 */
 	public boolean simulateNotSupported = false;
 	
+	/**
+	 * Prefix the client side adds to the keys of this instance
+	 */
+	public String keyNamespace = "";
+	
+	/**
+	 * Maximum number of items the client side keeps in its read cache.
+	 * 0 disables the cache.
+	 */
+	public int readCacheSize = 100;
+	
+	/**
+	 * Client side queues writes and flushes them when the browser is idle
+	 */
+	public boolean deferWrites = false;
+	
+	/**
+	 * Maximum time in milliseconds the client side may hold back item update
+	 * events to send them along with the next request. 0 sends them
+	 * immediately.
+	 */
+	public int itemUpdateEventDelay = 0;
+	
+	/**
+	 * Item update events only contain the key and the change type, the data
+	 * gets fetched on demand
+	 */
+	public boolean lazyItemUpdateEvents = false;
+	
 }
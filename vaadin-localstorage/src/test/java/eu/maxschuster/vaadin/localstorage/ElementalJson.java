@@ -0,0 +1,82 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.ElementalJson.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonType;
+import elemental.json.JsonValue;
+import eu.maxschuster.vaadin.localstorage.client.LocalStorageJson;
+import eu.maxschuster.vaadin.localstorage.client.LocalStorageQueryEngine;
+
+/**
+ * {@link LocalStorageJson} that uses the JSON parser of Vaadin, so the
+ * {@link LocalStorageQueryEngine} runs on the JVM.
+ * @author Max Schuster
+ */
+public class ElementalJson implements LocalStorageJson {
+
+	@Override
+	public Object parse(String json) {
+		return Json.instance().parse(json);
+	}
+
+	@Override
+	public Object get(Object value, String segment) {
+		JsonValue json = (JsonValue) value;
+		if (json.getType() == JsonType.OBJECT) {
+			JsonObject object = (JsonObject) json;
+			if (!object.hasKey(segment)) {
+				return null;
+			}
+			JsonValue member = object.get(segment);
+			return member != null ? member : Json.createNull();
+		}
+		if (json.getType() == JsonType.ARRAY) {
+			JsonArray array = (JsonArray) json;
+			int index = -1;
+			try {
+				index = Integer.parseInt(segment);
+			} catch (NumberFormatException e) {
+				// Not an array index
+			}
+			return index > -1 && index < array.length() ? array.get(index) : null;
+		}
+		return null;
+	}
+
+	@Override
+	public String canonical(Object value) {
+		JsonValue json = (JsonValue) value;
+		switch (json.getType()) {
+		case NUMBER:
+			return "n" + json.asNumber();
+		case STRING:
+			return "s" + json.asString();
+		case BOOLEAN:
+			return "b" + json.asBoolean();
+		case NULL:
+			return "z";
+		default:
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageResponder.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import com.vaadin.server.ClientMethodInvocation;
+
+import eu.maxschuster.vaadin.localstorage.client.CompressedSnapshotFormat;
+import eu.maxschuster.vaadin.localstorage.client.LocalStorageClientRpc;
+import eu.maxschuster.vaadin.localstorage.client.LocalStorageExecutor;
+import eu.maxschuster.vaadin.localstorage.client.LocalStorageQueryEngine;
+import eu.maxschuster.vaadin.localstorage.client.LocalStorageUsageTracker;
+import eu.maxschuster.vaadin.localstorage.client.MemoryStorageBackend;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageServerRpc;
+
+/**
+ * Plays the role of the browser for a single {@link LocalStorage} instance.
+ * <p>
+ * Pending {@link LocalStorageClientRpc} calls are taken from the extension
+ * and executed by the {@link LocalStorageExecutor} of the real connector
+ * against a {@link MemoryStorageBackend}. Queries are evaluated by the real
+ * {@link LocalStorageQueryEngine} with an {@link ElementalJson}, snapshots
+ * are encoded with the {@link CompressedSnapshotFormat}. It answers
+ * through the {@link LocalStorageServerRpc}.
+ * </p>
+ * @author Max Schuster
+ */
+public class LocalStorageResponder {
+
+	/**
+	 * The extension to answer
+	 */
+	private final LocalStorage localStorage;
+
+	/**
+	 * Server rpc of the extension
+	 */
+	private final LocalStorageServerRpc serverRpc;
+
+	/**
+	 * Simulated browser storage
+	 */
+	private final MemoryStorageBackend storage;
+
+	/**
+	 * Executes the client rpc calls
+	 */
+	private final LocalStorageExecutor executor;
+	
+	/**
+	 * @param localStorage The extension to answer
+	 */
+	public LocalStorageResponder(LocalStorage localStorage) {
+		this(localStorage, -1);
+	}
+	
+	/**
+	 * @param localStorage The extension to answer
+	 * @param quota Maximum number of characters of all keys and data or -1
+	 */
+	public LocalStorageResponder(LocalStorage localStorage, int quota) {
+		this(localStorage, new MemoryStorageBackend(quota));
+	}
+	
+	/**
+	 * @param localStorage The extension to answer
+	 * @param storage Simulated browser storage, may be shared with other
+	 * responders of the same browser window
+	 */
+	public LocalStorageResponder(LocalStorage localStorage, MemoryStorageBackend storage) {
+		this(localStorage, storage, new LocalStorageUsageTracker());
+	}
+	
+	/**
+	 * @param localStorage The extension to answer
+	 * @param storage Simulated browser storage, may be shared with other
+	 * responders of the same browser window
+	 * @param usage Usage of the storage, shared with the other responders
+	 * of the same storage
+	 */
+	public LocalStorageResponder(LocalStorage localStorage, MemoryStorageBackend storage,
+			LocalStorageUsageTracker usage) {
+		this.localStorage = localStorage;
+		this.storage = storage;
+		this.serverRpc = localStorage.getServerRpc();
+		this.executor = new LocalStorageExecutor(storage, serverRpc, usage);
+		executor.setQueryEngine(new LocalStorageQueryEngine(new ElementalJson()));
+		executor.setSnapshotFormat(new CompressedSnapshotFormat());
+	}
+
+	/**
+	 * Executes all pending client rpc calls and sends their responses.
+	 * @return Number of executed calls
+	 */
+	public int respond() {
+		// Vaadin lets the extension send its operations before the response
+		localStorage.beforeClientResponse(false);
+		List<ClientMethodInvocation> calls = localStorage.retrievePendingRpcCalls();
+		executor.setKeyNamespace(localStorage.getKeyNamespace());
+		executor.setSimulateNotSupported(localStorage.isSimulateNotSupported());
+		executor.setReadCacheSize(localStorage.getReadCacheSize());
+		executor.setDeferWrites(localStorage.isDeferWrites());
+		for (ClientMethodInvocation call : calls) {
+			execute(call.getMethodName(), call.getParameters());
+		}
+		// Deferred writes get flushed before the next round trip
+		executor.flushAll();
+		return calls.size();
+	}
+
+	/**
+	 * Simulates a {@link com.google.gwt.storage.client.StorageEvent} caused
+	 * by another browser tab.
+	 * @param key Items key, without the key namespace of the extension
+	 * @param data Items new data
+	 */
+	public void fireStorageEvent(String key, String data) {
+		String storageKey = localStorage.getKeyNamespace() + key;
+		String oldData = storage.getItem(storageKey);
+		if (data != null) {
+			storage.setItem(storageKey, data);
+		} else {
+			storage.removeItem(storageKey);
+		}
+		executor.onStorageChange(key, oldData, data);
+		executor.getUsageTracker().onItemChanged(storageKey, oldData, data);
+		if (localStorage.isLazyItemUpdateEvents()) {
+			executor.rememberChange(key, oldData);
+			serverRpc.triggerItemChangedEvent(key, data == null);
+		} else {
+			serverRpc.triggerItemUpdateEvent(key, oldData, data);
+		}
+	}
+
+	/**
+	 * @return The extension to answer
+	 */
+	public LocalStorage getLocalStorage() {
+		return localStorage;
+	}
+
+	/**
+	 * @return The simulated browser storage
+	 */
+	public MemoryStorageBackend getStorage() {
+		return storage;
+	}
+
+	/**
+	 * @return Executes the client rpc calls
+	 */
+	public LocalStorageExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Executes a single client rpc call
+	 * @param method Method name
+	 * @param params Method parameters
+	 */
+	private void execute(String method, Object[] params) {
+		for (Method m : LocalStorageClientRpc.class.getMethods()) {
+			if (m.getName().equals(method)) {
+				try {
+					m.invoke(executor, params);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(e);
+				} catch (InvocationTargetException e) {
+					throw new RuntimeException(e.getCause());
+				}
+				return;
+			}
+		}
+		throw new UnsupportedOperationException("Unknown client rpc method: " + method);
+	}
+
+}
@@ -0,0 +1,197 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageSchedulerTest.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the lanes and the promotion of the {@link LocalStorageScheduler}
+ * without a {@link LocalStorage}
+ * @author Max Schuster
+ */
+public class LocalStorageSchedulerTest {
+
+	@Test
+	public void higherPrioritiesGetPolledFirst() {
+		LocalStorageScheduler<Task> scheduler = new LocalStorageScheduler<Task>();
+		Task background = Task.write("a");
+		Task normal = Task.write("b");
+		Task interactive = Task.read("c");
+		scheduler.schedule(background, LocalStoragePriority.BACKGROUND);
+		scheduler.schedule(normal, LocalStoragePriority.NORMAL);
+		scheduler.schedule(interactive, LocalStoragePriority.INTERACTIVE);
+		Assert.assertEquals(Arrays.asList(interactive, normal, background),
+				scheduler.getScheduled());
+		Assert.assertEquals(Arrays.asList(interactive, normal, background),
+				scheduler.poll(10));
+		Assert.assertFalse(scheduler.hasScheduled(LocalStoragePriority.BACKGROUND));
+	}
+
+	@Test
+	public void backgroundBudgetLimitsPolledWork() {
+		LocalStorageScheduler<Task> scheduler = new LocalStorageScheduler<Task>();
+		for (int i = 0; i < 5; i++) {
+			scheduler.schedule(Task.write("bg." + i), LocalStoragePriority.BACKGROUND);
+		}
+		Task normal = Task.write("n");
+		scheduler.schedule(normal, LocalStoragePriority.NORMAL);
+		Assert.assertEquals(3, scheduler.poll(2).size());
+		Assert.assertTrue(scheduler.hasScheduled(LocalStoragePriority.BACKGROUND));
+		Assert.assertEquals(2, scheduler.poll(2).size());
+		Assert.assertEquals(1, scheduler.poll(2).size());
+		Assert.assertFalse(scheduler.hasScheduled(LocalStoragePriority.BACKGROUND));
+	}
+
+	@Test
+	public void conflictingWorkGetsPromotedTransitively() {
+		LocalStorageScheduler<Task> scheduler = new LocalStorageScheduler<Task>();
+		Task write = Task.write("a");
+		Task unrelated = Task.write("x");
+		Task batch = Task.writeAll("a", "b");
+		scheduler.schedule(write, LocalStoragePriority.BACKGROUND);
+		scheduler.schedule(unrelated, LocalStoragePriority.BACKGROUND);
+		scheduler.schedule(batch, LocalStoragePriority.BACKGROUND);
+		// Reading "b" needs the batch, which has to wait for the write of "a"
+		Task read = Task.read("b");
+		scheduler.schedule(read, LocalStoragePriority.INTERACTIVE);
+		Assert.assertEquals(Arrays.asList(write, batch, read), scheduler.poll(0));
+		Assert.assertEquals(Arrays.asList(unrelated), scheduler.getScheduled());
+	}
+
+	@Test
+	public void rangesConflictWithTheirPrefix() {
+		LocalStorageScheduler<Task> scheduler = new LocalStorageScheduler<Task>();
+		Task inside = Task.write("user.name");
+		Task outside = Task.write("other");
+		scheduler.schedule(inside, LocalStoragePriority.BACKGROUND);
+		scheduler.schedule(outside, LocalStoragePriority.BACKGROUND);
+		Task query = Task.query("user.");
+		scheduler.schedule(query, LocalStoragePriority.INTERACTIVE);
+		Assert.assertEquals(Arrays.asList(inside, query), scheduler.poll(0));
+
+		Task clear = Task.write(null);
+		scheduler.schedule(clear, LocalStoragePriority.BACKGROUND);
+		Task read = Task.read("anything");
+		scheduler.schedule(read, LocalStoragePriority.INTERACTIVE);
+		// The clear was scheduled after "other" and has to wait for it
+		Assert.assertEquals(Arrays.asList(outside, clear, read), scheduler.poll(0));
+		Assert.assertTrue(scheduler.getScheduled().isEmpty());
+	}
+
+	@Test
+	public void clearRemovesAllWork() {
+		LocalStorageScheduler<Task> scheduler = new LocalStorageScheduler<Task>();
+		scheduler.schedule(Task.write("a"), LocalStoragePriority.BACKGROUND);
+		scheduler.schedule(Task.query(""), LocalStoragePriority.INTERACTIVE);
+		scheduler.clear();
+		Assert.assertTrue(scheduler.getScheduled().isEmpty());
+		// Nothing of the cleared work is left in the index
+		Task read = Task.read("a");
+		scheduler.schedule(read, LocalStoragePriority.INTERACTIVE);
+		Assert.assertEquals(Arrays.asList(read), scheduler.poll(0));
+	}
+
+	/**
+	 * Operation that reads or writes items
+	 */
+	static class Task implements LocalStorageScheduler.Schedulable<Task> {
+
+		private final String key;
+
+		private final Collection<String> keys;
+
+		private final boolean range;
+
+		private final boolean read;
+
+		private Task(String key, Collection<String> keys, boolean range, boolean read) {
+			this.key = key;
+			this.keys = keys;
+			this.range = range;
+			this.read = read;
+		}
+
+		static Task read(String key) {
+			return new Task(key, null, false, true);
+		}
+
+		static Task query(String prefix) {
+			return new Task(prefix, null, true, true);
+		}
+
+		static Task write(String key) {
+			return new Task(key, null, false, false);
+		}
+
+		static Task writeAll(String... keys) {
+			return new Task(null, Arrays.asList(keys), false, false);
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public Collection<String> getKeys() {
+			return keys;
+		}
+
+		@Override
+		public boolean isRange() {
+			return range;
+		}
+
+		@Override
+		public boolean conflictsWith(Task later) {
+			if (read && later.read) {
+				return false;
+			}
+			Collection<String> mine = keys != null ? keys : Collections.singleton(key);
+			Collection<String> theirs = later.keys != null ? later.keys : Collections.singleton(later.key);
+			for (String a : mine) {
+				for (String b : theirs) {
+					if (touches(a, range, b, later.range)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		private static boolean touches(String a, boolean aRange, String b, boolean bRange) {
+			if (a == null || b == null) {
+				return true;
+			}
+			return (aRange && b.startsWith(a)) || (bRange && a.startsWith(b)) || a.equals(b);
+		}
+
+		@Override
+		public String toString() {
+			return (read ? "read " : "write ") + (keys != null ? keys : key);
+		}
+
+	}
+
+}
@@ -0,0 +1,415 @@
+/*
+ * eu.maxschuster.vaadin.localstorage.LocalStorageSoak.java
+ *
+ * Copyright 2013 Max Schuster
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.maxschuster.vaadin.localstorage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.UI;
+
+import eu.maxschuster.vaadin.localstorage.LocalStorage.ItemUpdateEvent;
+import eu.maxschuster.vaadin.localstorage.LocalStorage.ItemUpdateListener;
+
+/**
+ * Load and soak test for {@link LocalStorage}.
+ * <p>
+ * Creates many {@link UI}s with an attached {@link LocalStorage}, drives
+ * mixed read/write/event traffic through a {@link LocalStorageResponder}
+ * and writes throughput, callback latency, retained heap per {@link UI}
+ * and GC figures as JSON so runs can be compared across versions.
+ * </p>
+ * <p>
+ * Run with <code>mvn -Psoak test-compile exec:java</code>. The run can be
+ * tuned with the system properties <code>soak.uis</code>,
+ * <code>soak.threads</code>, <code>soak.duration</code> (seconds),
+ * <code>soak.valueSize</code>, <code>soak.readPercent</code>,
+ * <code>soak.eventPercent</code>, <code>soak.batchSize</code>,
+ * <code>soak.sampleInterval</code> (seconds) and <code>soak.output</code>.
+ * </p>
+ * @author Max Schuster
+ */
+public class LocalStorageSoak {
+
+	/**
+	 * Maximum number of latency samples kept per worker
+	 */
+	private static final int MAX_SAMPLES = 100000;
+
+	private final int uiCount;
+
+	private final int threadCount;
+
+	private final long durationMillis;
+
+	private final int valueSize;
+
+	private final int readPercent;
+
+	private final int eventPercent;
+
+	private final int batchSize;
+
+	private final long sampleIntervalMillis;
+
+	private final File output;
+
+	/**
+	 * Number of delivered {@link ItemUpdateEvent}s
+	 */
+	private final AtomicLong deliveredEvents = new AtomicLong();
+
+	/**
+	 * Heap samples taken while the soak is running
+	 */
+	private final List<long[]> heapSamples = new ArrayList<long[]>();
+
+	public LocalStorageSoak(int uiCount, int threadCount, long durationMillis,
+			int valueSize, int readPercent, int eventPercent, int batchSize,
+			long sampleIntervalMillis, File output) {
+		this.uiCount = uiCount;
+		this.threadCount = threadCount;
+		this.durationMillis = durationMillis;
+		this.valueSize = valueSize;
+		this.readPercent = readPercent;
+		this.eventPercent = eventPercent;
+		this.batchSize = batchSize;
+		this.sampleIntervalMillis = sampleIntervalMillis;
+		this.output = output;
+	}
+
+	public static void main(String[] args) throws Exception {
+		LocalStorageSoak soak = new LocalStorageSoak(
+				Integer.getInteger("soak.uis", 1000),
+				Integer.getInteger("soak.threads", Runtime.getRuntime().availableProcessors()),
+				Long.getLong("soak.duration", 60) * 1000,
+				Integer.getInteger("soak.valueSize", 1024),
+				Integer.getInteger("soak.readPercent", 60),
+				Integer.getInteger("soak.eventPercent", 10),
+				Integer.getInteger("soak.batchSize", 4),
+				Long.getLong("soak.sampleInterval", 10) * 1000,
+				new File(System.getProperty("soak.output", "target/soak/localstorage-soak.json")));
+		System.out.println(soak.run());
+	}
+
+	/**
+	 * Runs the soak and writes the results.
+	 * @return The results as JSON
+	 * @throws Exception
+	 */
+	public String run() throws Exception {
+		// Retained heap of the bare UIs and of the extensions on top of them
+		long heapBefore = usedHeapAfterGc();
+		List<UI> uis = new ArrayList<UI>(uiCount);
+		for (int i = 0; i < uiCount; i++) {
+			uis.add(new SoakUI());
+		}
+		long heapUis = usedHeapAfterGc();
+		final List<LocalStorageResponder> responders = new ArrayList<LocalStorageResponder>(uiCount);
+		ItemUpdateListener listener = new ItemUpdateListener() {
+
+			@Override
+			public void onUpdate(ItemUpdateEvent event) {
+				deliveredEvents.incrementAndGet();
+			}
+
+		};
+		for (UI ui : uis) {
+			LocalStorage localStorage = LocalStorage.getCurrent(ui);
+			localStorage.addItemUpdateListener(listener);
+			responders.add(new LocalStorageResponder(localStorage));
+		}
+		long heapExtensions = usedHeapAfterGc();
+
+		GcSnapshot gcBefore = new GcSnapshot();
+		Worker[] workers = new Worker[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			List<LocalStorageResponder> own = new ArrayList<LocalStorageResponder>();
+			for (int j = i; j < responders.size(); j += threadCount) {
+				own.add(responders.get(j));
+			}
+			workers[i] = new Worker(own, i);
+		}
+
+		long start = System.nanoTime();
+		final long end = start + durationMillis * 1000000L;
+		for (Worker worker : workers) {
+			worker.deadline = end;
+			worker.start();
+		}
+		while (System.nanoTime() < end) {
+			Thread.sleep(Math.max(1, Math.min(sampleIntervalMillis,
+					(end - System.nanoTime()) / 1000000L)));
+			heapSamples.add(new long[] {
+					(System.nanoTime() - start) / 1000000L,
+					usedHeap(),
+					usedHeapAfterLastGc()
+			});
+		}
+		for (Worker worker : workers) {
+			worker.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		GcSnapshot gcAfter = new GcSnapshot();
+		long heapAfterSoak = usedHeapAfterGc();
+
+		long ops = 0;
+		long errors = 0;
+		int sampleCount = 0;
+		for (Worker worker : workers) {
+			ops += worker.completed;
+			errors += worker.errors;
+			sampleCount += worker.sampleCount;
+		}
+		long[] latencies = new long[sampleCount];
+		int offset = 0;
+		for (Worker worker : workers) {
+			System.arraycopy(worker.samples, 0, latencies, offset, worker.sampleCount);
+			offset += worker.sampleCount;
+		}
+		Arrays.sort(latencies);
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		appendField(json, "uis", uiCount);
+		appendField(json, "threads", threadCount);
+		appendField(json, "durationMillis", elapsed / 1000000L);
+		appendField(json, "valueSize", valueSize);
+		appendField(json, "readPercent", readPercent);
+		appendField(json, "eventPercent", eventPercent);
+		appendField(json, "batchSize", batchSize);
+		appendField(json, "operations", ops);
+		appendField(json, "errors", errors);
+		appendField(json, "deliveredEvents", deliveredEvents.get());
+		appendField(json, "opsPerSecond", ops * 1000000000L / Math.max(1, elapsed));
+		appendField(json, "latencyP50Nanos", percentile(latencies, 50));
+		appendField(json, "latencyP99Nanos", percentile(latencies, 99));
+		appendField(json, "latencyMaxNanos", latencies.length > 0 ? latencies[latencies.length - 1] : 0);
+		appendField(json, "heapPerUiBytes", (heapUis - heapBefore) / Math.max(1, uiCount));
+		appendField(json, "heapPerExtensionBytes", (heapExtensions - heapUis) / Math.max(1, uiCount));
+		appendField(json, "heapPerUiAfterSoakBytes", (heapAfterSoak - heapBefore) / Math.max(1, uiCount));
+		appendField(json, "gcCount", gcAfter.count - gcBefore.count);
+		appendField(json, "gcTimeMillis", gcAfter.time - gcBefore.time);
+		json.append("  \"heapSamples\": [");
+		for (int i = 0; i < heapSamples.size(); i++) {
+			long[] sample = heapSamples.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"elapsedMillis\": ").append(sample[0])
+				.append(", \"usedBytes\": ").append(sample[1])
+				.append(", \"usedAfterLastGcBytes\": ").append(sample[2])
+				.append("}");
+		}
+		json.append("\n  ]\n}\n");
+
+		// Keep the UIs reachable until everything has been measured
+		if (uis.size() != responders.size()) {
+			throw new IllegalStateException();
+		}
+		write(json.toString());
+		return json.toString();
+	}
+
+	/**
+	 * Writes the results to {@link #output}
+	 * @param json The results
+	 * @throws IOException
+	 */
+	private void write(String json) throws IOException {
+		File dir = output.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create " + dir);
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+		try {
+			writer.write(json);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void appendField(StringBuilder json, String name, long value) {
+		json.append("  \"").append(name).append("\": ").append(value).append(",\n");
+	}
+
+	private static long percentile(long[] sorted, int percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long usedHeapAfterLastGc() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+				used += pool.getCollectionUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	private static long usedHeapAfterGc() throws InterruptedException {
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			Thread.sleep(50);
+			used = Math.min(used, usedHeap());
+		}
+		return used;
+	}
+
+	/**
+	 * Drives traffic against a disjoint set of {@link UI}s, so no locking
+	 * between workers is needed.
+	 */
+	private class Worker extends Thread {
+
+		private final List<LocalStorageResponder> responders;
+
+		private final Random random;
+
+		private final String value;
+
+		private final long[] samples = new long[MAX_SAMPLES];
+
+		private volatile long deadline;
+
+		private int sampleCount = 0;
+
+		private long seen = 0;
+
+		private long completed = 0;
+
+		private long errors = 0;
+
+		Worker(List<LocalStorageResponder> responders, int index) {
+			super("localstorage-soak-" + index);
+			this.responders = responders;
+			this.random = new Random(index);
+			char[] chars = new char[valueSize];
+			Arrays.fill(chars, 'x');
+			this.value = new String(chars);
+		}
+
+		@Override
+		public void run() {
+			if (responders.isEmpty()) {
+				return;
+			}
+			while (System.nanoTime() < deadline) {
+				LocalStorageResponder responder = responders.get(random.nextInt(responders.size()));
+				LocalStorage localStorage = responder.getLocalStorage();
+				for (int i = 0; i < batchSize; i++) {
+					String key = "key-" + random.nextInt(16);
+					int op = random.nextInt(100);
+					if (op < eventPercent) {
+						responder.fireStorageEvent(key, value);
+						completed++;
+					} else if (op < eventPercent + readPercent) {
+						localStorage.getItem(key, new TimingCallback());
+					} else {
+						localStorage.setItem(key, value, new TimingCallback());
+					}
+				}
+				responder.respond();
+			}
+		}
+
+		private void record(long latency) {
+			seen++;
+			if (sampleCount < MAX_SAMPLES) {
+				samples[sampleCount++] = latency;
+			} else {
+				// Reservoir sampling keeps the percentiles unbiased
+				long slot = (long) (random.nextDouble() * seen);
+				if (slot < MAX_SAMPLES) {
+					samples[(int) slot] = latency;
+				}
+			}
+		}
+
+		@SuppressWarnings("serial")
+		private class TimingCallback implements LocalStorageItemCallback {
+
+			private final long start = System.nanoTime();
+
+			@Override
+			public void onSuccess(LocalStorageItem item) {
+				record(System.nanoTime() - start);
+				completed++;
+			}
+
+			@Override
+			public void onError(String key) {
+				record(System.nanoTime() - start);
+				errors++;
+			}
+
+		}
+
+	}
+
+	/**
+	 * Accumulated collection count and time of all garbage collectors
+	 */
+	private static class GcSnapshot {
+
+		private long count = 0;
+
+		private long time = 0;
+
+		GcSnapshot() {
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				count += Math.max(0, gc.getCollectionCount());
+				time += Math.max(0, gc.getCollectionTime());
+			}
+		}
+
+	}
+
+	/**
+	 * Minimal {@link UI} that is never attached to a session
+	 */
+	@SuppressWarnings("serial")
+	private static class SoakUI extends UI {
+
+		@Override
+		protected void init(VaadinRequest request) { }
+
+	}
+
+}
@@ -1,8 +1,50 @@
 package eu.maxschuster.vaadin.localstorage;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+import javax.management.ObjectName;
+
 import junit.framework.Assert;
 import org.junit.Test;
 
+import com.vaadin.server.ClientMethodInvocation;
+import com.vaadin.server.DefaultDeploymentConfiguration;
+import com.vaadin.server.ServiceException;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinServlet;
+import com.vaadin.server.VaadinServletService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+
+import eu.maxschuster.vaadin.localstorage.client.LocalStorageQueryEngine;
+import eu.maxschuster.vaadin.localstorage.client.LocalStorageUsageTracker;
+import eu.maxschuster.vaadin.localstorage.client.MemoryStorageBackend;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageBinaryCodec;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageHash;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageItemUpdateInvocation;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageQuery.Condition;
+import eu.maxschuster.vaadin.localstorage.shared.LocalStorageSnapshotCodec;
+
 // JUnit tests here
 public class LocalStorageTest {
 
@@ -10,4 +52,1209 @@ public class LocalStorageTest {
 	public void thisAlwaysPasses() {
 		Assert.assertEquals(true, true);
 	}
+
+	@Test
+	public void soakSmokeRun() throws Exception {
+		File output = File.createTempFile("localstorage-soak", ".json");
+		output.deleteOnExit();
+		String json = new LocalStorageSoak(8, 2, 200, 16, 50, 10, 4, 50, output).run();
+		Assert.assertTrue(json.contains("\"errors\": 0,"));
+		Assert.assertTrue(output.length() > 0);
+	}
+
+	@Test
+	public void writeCallbackGetsDataWithoutEcho() {
+		LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		RecordingCallback callback = new RecordingCallback();
+
+		localStorage.setItem("key", "old");
+		localStorage.setItem("key", "new", callback);
+		responder.respond();
+		Assert.assertEquals("old", callback.item.getOldData());
+		Assert.assertEquals("new", callback.item.getData());
+
+		localStorage.setFetchOldData(false);
+		localStorage.setItem("key", "newer", callback);
+		responder.respond();
+		Assert.assertNull(callback.item.getOldData());
+		Assert.assertEquals("newer", callback.item.getData());
+		Assert.assertEquals("newer", responder.getStorage().getItem("key"));
+	}
+
+	@Test
+	public void conditionalReadSkipsUnchangedData() {
+		LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		RecordingCallback callback = new RecordingCallback();
+		responder.getStorage().setItem("key", "value");
+
+		localStorage.getItem("key", "value", callback);
+		responder.respond();
+		Assert.assertEquals("value", callback.item.getData());
+
+		responder.fireStorageEvent("key", "changed");
+		localStorage.getItem("key", "value", callback);
+		responder.respond();
+		Assert.assertEquals("changed", callback.item.getData());
+	}
+
+	@Test
+	public void hashDistinguishesData() {
+		Assert.assertNull(LocalStorageHash.hash(null));
+		Assert.assertEquals(LocalStorageHash.hash("abc"), LocalStorageHash.hash(new String("abc")));
+		Assert.assertFalse(LocalStorageHash.hash("").equals(LocalStorageHash.hash("a")));
+		Assert.assertFalse(LocalStorageHash.hash("Aa").equals(LocalStorageHash.hash("BB")));
+	}
+
+	@Test
+	public void binaryCodecRoundTrip() {
+		Random random = new Random(42);
+		for (int length = 0; length < 200; length++) {
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+			String encoded = LocalStorageBinaryCodec.encode(bytes);
+			Assert.assertEquals(1 + (length * 8 + 14) / 15, encoded.length());
+			for (int i = 0; i < encoded.length(); i++) {
+				char c = encoded.charAt(i);
+				Assert.assertTrue(c >= 0x4000 && c <= 0xBFFF);
+			}
+			Assert.assertTrue(Arrays.equals(bytes, LocalStorageBinaryCodec.decode(encoded)));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("serial")
+	public void bytesRoundTrip() {
+		LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		final ByteBuffer[] result = new ByteBuffer[1];
+		byte[] bytes = new byte[] { 0, 1, -1, 127, -128, 42 };
+
+		localStorage.setBytes("key", ByteBuffer.wrap(bytes, 1, 4));
+		localStorage.getBytes("key", new LocalStorageBytesCallback() {
+
+			@Override
+			public void onSuccess(String key, ByteBuffer data) {
+				result[0] = data;
+			}
+
+			@Override
+			public void onError(String key) {
+				Assert.fail();
+			}
+
+		});
+		responder.respond();
+		Assert.assertEquals(ByteBuffer.wrap(bytes, 1, 4), result[0]);
+	}
+
+	@Test
+	public void limiterRejectsExcessOperations() {
+		LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		LocalStorageLimiter limiter = LocalStorageLimiter.reject(1);
+		localStorage.setLimiter(limiter);
+		RecordingCallback first = new RecordingCallback();
+		RecordingCallback second = new RecordingCallback();
+
+		localStorage.getItem("a", first);
+		localStorage.getItem("b", second);
+		Assert.assertEquals(1, second.errors);
+		Assert.assertEquals("b", second.errorKey);
+		Assert.assertEquals(1, limiter.getInFlight());
+		responder.respond();
+		Assert.assertEquals(0, first.errors);
+		Assert.assertEquals(0, limiter.getInFlight());
+		Assert.assertEquals(1, limiter.getRejected());
+	}
+
+	@Test
+	public void applicationLimitersArePerService() throws ServiceException {
+		VaadinService first = newService("first");
+		VaadinService second = newService("second");
+		LocalStorageLimiter limiter = LocalStorageLimiter.reject(1);
+		LocalStorage.setApplicationLimiter(first, limiter);
+		Assert.assertSame(limiter, LocalStorage.getApplicationLimiter(first));
+		Assert.assertNull(LocalStorage.getApplicationLimiter(second));
+		ObjectName name = limiter.getObjectName();
+		Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+		LocalStorageResponder limited = new LocalStorageResponder(
+				LocalStorage.getCurrent(newUI(first)));
+		LocalStorageResponder unlimited = new LocalStorageResponder(
+				LocalStorage.getCurrent(newUI(second)));
+		RecordingCallback callback = new RecordingCallback();
+		limited.getLocalStorage().getItem("a", callback);
+		limited.getLocalStorage().getItem("b", callback);
+		unlimited.getLocalStorage().getItem("a", callback);
+		unlimited.getLocalStorage().getItem("b", callback);
+		Assert.assertEquals(1, callback.errors);
+		Assert.assertEquals(1, limiter.getInFlight());
+		limited.respond();
+		unlimited.respond();
+		Assert.assertEquals(0, limiter.getInFlight());
+
+		first.destroy();
+		Assert.assertNull(LocalStorage.getApplicationLimiter(first));
+		Assert.assertNull(limiter.getObjectName());
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+	@Test
+	public void limiterQueuesInOrder() {
+		LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		LocalStorageLimiter limiter = LocalStorageLimiter.queue(1, 1);
+		localStorage.setLimiter(limiter);
+		RecordingCallback first = new RecordingCallback();
+		RecordingCallback second = new RecordingCallback();
+		RecordingCallback third = new RecordingCallback();
+
+		localStorage.setItem("key", "1", first);
+		localStorage.setItem("key", "2", second);
+		localStorage.setItem("key", "3");
+		localStorage.getItem("key", third);
+		Assert.assertEquals(1, third.errors);
+		Assert.assertEquals(1, limiter.getBacklog());
+
+		responder.respond();
+		Assert.assertEquals("1", first.item.getData());
+		Assert.assertEquals(0, limiter.getBacklog());
+		responder.respond();
+		Assert.assertEquals("2", second.item.getData());
+		Assert.assertEquals("3", responder.getStorage().getItem("key"));
+		Assert.assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void serializedSizePerUi() throws Exception {
+		int bare = serialize(new TestUI()).length;
+		LocalStorage localStorage = LocalStorage.getCurrent(new TestUI());
+		// The first rpc call adds some constant bookkeeping
+		localStorage.getItem("key", new SerializableCallback());
+		localStorage.beforeClientResponse(false);
+		localStorage.retrievePendingRpcCalls();
+		int empty = serialize(localStorage.getParent()).length;
+		for (int i = 0; i < 1000; i++) {
+			localStorage.getItem("key" + i, new SerializableCallback());
+		}
+		localStorage.beforeClientResponse(false);
+		localStorage.retrievePendingRpcCalls();
+		int pending = serialize(localStorage.getParent()).length;
+		Assert.assertTrue(empty - bare < 8 * 1024);
+		// Only the key and the callback of each pending operation
+		Assert.assertTrue(pending - empty < 1000 * 20);
+	}
+
+	@Test
+	public void pendingCallbacksFailAfterDeserialization() throws Exception {
+		LocalStorage localStorage = LocalStorage.getCurrent(new TestUI());
+		localStorage.setItem("key", "value", new SerializableCallback());
+		localStorage.retrievePendingRpcCalls();
+		TestUI copy = (TestUI) new ObjectInputStream(new ByteArrayInputStream(
+				serialize(localStorage.getParent()))).readObject();
+		LocalStorageResponder responder = new LocalStorageResponder(LocalStorage.getCurrent(copy));
+		SerializableCallback.errorKeys.clear();
+
+		responder.getLocalStorage().getItem("other", new RecordingCallback());
+		Assert.assertEquals(Arrays.asList("key"), SerializableCallback.errorKeys);
+	}
+
+	@Test
+	public void pendingQueriesFailAfterDeserialization() throws Exception {
+		LocalStorage localStorage = LocalStorage.getCurrent(new TestUI());
+		localStorage.query(new LocalStorageQuery("user."), new SerializableQueryCallback());
+		localStorage.beforeClientResponse(false);
+		localStorage.retrievePendingRpcCalls();
+		localStorage.query(new LocalStorageQuery("other."), new SerializableQueryCallback());
+		TestUI copy = (TestUI) new ObjectInputStream(new ByteArrayInputStream(
+				serialize(localStorage.getParent()))).readObject();
+		LocalStorageResponder responder = new LocalStorageResponder(LocalStorage.getCurrent(copy));
+		SerializableQueryCallback.errorPrefixes.clear();
+
+		responder.getLocalStorage().getItem("other", new RecordingCallback());
+		Assert.assertEquals(Arrays.asList("user.", "other."), SerializableQueryCallback.errorPrefixes);
+	}
+
+	@Test
+	public void flightRecorderRecordsOperations() {
+		LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		LocalStorageFlightRecorder recorder = new LocalStorageFlightRecorder(3);
+		localStorage.setFlightRecorder(recorder);
+		Assert.assertEquals(4, recorder.getCapacity());
+
+		localStorage.setItem("key", "value");
+		localStorage.getItem("key", new RecordingCallback());
+		String pending = recorder.dump();
+		Assert.assertTrue(pending.contains("\tSET\t"));
+		Assert.assertTrue(pending.contains("\tPENDING\n"));
+		responder.respond();
+		String dump = recorder.dump();
+		Assert.assertTrue(dump.contains("\tGET\t" + Integer.toHexString("key".hashCode()) + "\t5\t"));
+		Assert.assertTrue(dump.contains("\tSUCCESS\n"));
+
+		for (int i = 0; i < 10; i++) {
+			localStorage.removeItem("key");
+		}
+		Assert.assertEquals(12, recorder.getRecorded());
+		Assert.assertEquals(5, recorder.dump().split("\n").length);
+	}
+
+	@Test
+	public void queryBuildsJsonLiterals() {
+		LocalStorageQuery query = new LocalStorageQuery("user.")
+				.eq("name", "a\"b\\c\n").ge("age", 18).lt("score", 0.5).eq("admin", false);
+		List<String> values = new ArrayList<String>();
+		for (Condition condition : query.conditions) {
+			values.add(condition.value);
+		}
+		Assert.assertEquals(Arrays.asList("\"a\\\"b\\\\c\\u000a\"", "18", "0.5", "false"), values);
+		Assert.assertEquals(LocalStorageQuery.Operator.GE, query.conditions.get(1).operator);
+	}
+
+	@Test
+	@SuppressWarnings("serial")
+	public void queryReturnsItemsWithPrefix() {
+		LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		final List<LocalStorageItem> result = new ArrayList<LocalStorageItem>();
+		responder.getStorage().setItem("user.1", "{}");
+		responder.getStorage().setItem("other", "{}");
+
+		localStorage.query(new LocalStorageQuery("user."), new LocalStorageQueryCallback() {
+
+			@Override
+			public void onSuccess(List<LocalStorageItem> items) {
+				result.addAll(items);
+			}
+
+			@Override
+			public void onError(String keyPrefix) {
+				Assert.fail();
+			}
+
+		});
+		responder.respond();
+		Assert.assertEquals(1, result.size());
+		Assert.assertEquals("user.1", result.get(0).getKey());
+		Assert.assertEquals("{}", result.get(0).getData());
+	}
+
+	@Test
+	public void queryEvaluatesConditions() {
+		LocalStorageResponder responder = newResponder();
+		responder.getStorage().setItem("user.1",
+				"{\"name\":\"ann\",\"age\":30,\"tags\":[\"a\",\"b\"],\"admin\":true,\"boss\":null}");
+		responder.getStorage().setItem("user.2",
+				"{\"name\":\"bob\",\"age\":17,\"tags\":[\"c\"],\"admin\":false}");
+		responder.getStorage().setItem("user.3", "{");
+		responder.getStorage().setItem("user.4", "{\"name\":\"cid\",\"age\":\"old\"}");
+
+		Assert.assertEquals(Arrays.asList("user.2"),
+				queryKeys(responder, new LocalStorageQuery("user.").eq("name", "bob")));
+		Assert.assertEquals(Arrays.asList("user.1"),
+				queryKeys(responder, new LocalStorageQuery("user.").ge("age", 18)));
+		Assert.assertEquals(Arrays.asList("user.1", "user.2"),
+				queryKeys(responder, new LocalStorageQuery("user.").lt("name", "c")));
+		Assert.assertEquals(Arrays.asList("user.1"),
+				queryKeys(responder, new LocalStorageQuery("user.").eq("tags.1", "b")));
+		Assert.assertEquals(Arrays.asList("user.2"),
+				queryKeys(responder, new LocalStorageQuery("user.").eq("admin", false)));
+		Assert.assertEquals(Arrays.asList("user.1"),
+				queryKeys(responder, new LocalStorageQuery("user.").eq("boss", (String) null)));
+		Assert.assertEquals(Arrays.asList("user.1"), queryKeys(responder,
+				new LocalStorageQuery("user.").gt("age", 10).eq("admin", true).useIndex()));
+		Assert.assertEquals(new ArrayList<String>(),
+				queryKeys(responder, new LocalStorageQuery("user.").eq("tags", "c")));
+		Assert.assertNull(queryKeys(responder, new LocalStorageQuery("user.")
+				.where("age", LocalStorageQuery.Operator.EQ, "{")));
+	}
+
+	@Test
+	public void queryIndexFollowsChanges() {
+		LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		LocalStorageQuery query = new LocalStorageQuery("user.").eq("team", "a").useIndex();
+		responder.getStorage().setItem("user.1", "{\"team\":\"a\"}");
+		responder.getStorage().setItem("user.2", "{\"team\":\"b\"}");
+		Assert.assertEquals(Arrays.asList("user.1"), queryKeys(responder, query));
+
+		localStorage.setItem("user.2", "{\"team\":\"a\"}");
+		Assert.assertEquals(Arrays.asList("user.1", "user.2"), queryKeys(responder, query));
+		localStorage.setDeferWrites(true);
+		localStorage.setItem("user.3", "{\"team\":\"a\"}");
+		localStorage.removeItem("user.1");
+		Assert.assertEquals(Arrays.asList("user.2", "user.3"), queryKeys(responder, query));
+		responder.fireStorageEvent("user.2", "{\"team\":\"c\"}");
+		Assert.assertEquals(Arrays.asList("user.3"), queryKeys(responder, query));
+		localStorage.clear();
+		Assert.assertEquals(new ArrayList<String>(), queryKeys(responder, query));
+	}
+
+	@Test
+	public void queryEngineRebuildsInvalidatedIndexes() {
+		final Map<String, String> items = new TreeMap<String, String>();
+		LocalStorageQueryEngine.Items access = new LocalStorageQueryEngine.Items() {
+
+			@Override
+			public Collection<String> getKeys(String prefix) {
+				return new ArrayList<String>(items.keySet());
+			}
+
+			@Override
+			public String getItem(String key) {
+				return items.get(key);
+			}
+
+		};
+		LocalStorageQueryEngine engine = new LocalStorageQueryEngine(new ElementalJson());
+		LocalStorageQuery query = new LocalStorageQuery().eq("n", 1).useIndex();
+		items.put("a", "{\"n\":1}");
+		List<String> keys = new ArrayList<String>();
+		engine.evaluate(query, access, keys, null);
+		Assert.assertEquals(Arrays.asList("a"), keys);
+
+		// Unreported changes are invisible to the index
+		items.put("b", "{\"n\":1}");
+		keys.clear();
+		engine.evaluate(query, access, keys, null);
+		Assert.assertEquals(Arrays.asList("a"), keys);
+
+		engine.invalidateAll();
+		keys.clear();
+		engine.evaluate(query, access, keys, null);
+		Collections.sort(keys);
+		Assert.assertEquals(Arrays.asList("a", "b"), keys);
+
+		items.clear();
+		engine.onClear();
+		keys.clear();
+		engine.evaluate(query, access, keys, null);
+		Assert.assertTrue(keys.isEmpty());
+	}
+
+	@Test
+	@SuppressWarnings("serial")
+	public void mismatchedAnswerFailsQuery() {
+		LocalStorage localStorage = LocalStorage.getCurrent(new TestUI());
+		final List<String> errors = new ArrayList<String>();
+		localStorage.query(new LocalStorageQuery("user."), new LocalStorageQueryCallback() {
+
+			@Override
+			public void onSuccess(List<LocalStorageItem> items) {
+				Assert.fail();
+			}
+
+			@Override
+			public void onError(String keyPrefix) {
+				errors.add(keyPrefix);
+			}
+
+		});
+		localStorage.beforeClientResponse(false);
+		localStorage.retrievePendingRpcCalls();
+		localStorage.getServerRpc().callLocalStorageItemCallback(0, true, "user.1", null, "{}");
+		localStorage.getServerRpc().callLocalStorageQueryCallback(0, true,
+				new ArrayList<String>(), new ArrayList<String>());
+		Assert.assertEquals(Arrays.asList("user."), errors);
+	}
+
+	@Test
+	@SuppressWarnings("serial")
+	public void usageReportsPrefixes() {
+		LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		final LocalStorageUsage[] result = new LocalStorageUsage[1];
+		responder.getStorage().setItem("a.1", "xy");
+		responder.getStorage().setItem("a.2", "");
+		responder.getStorage().setItem("b", "z");
+
+		localStorage.getUsage(new LocalStorageUsageCallback() {
+
+			@Override
+			public void onSuccess(LocalStorageUsage usage) {
+				result[0] = usage;
+			}
+
+			@Override
+			public void onError() {
+				Assert.fail();
+			}
+
+		}, "a.", "c.");
+		responder.respond();
+		Assert.assertEquals(2 * (5 + 3 + 2), result[0].getUsedBytes());
+		Assert.assertEquals(3, result[0].getItemCount());
+		Assert.assertEquals(2 * (5 + 3), result[0].getUsedBytes("a."));
+		Assert.assertEquals(2, result[0].getItemCount("a."));
+		Assert.assertEquals(0, result[0].getItemCount("c."));
+		Assert.assertEquals(5 * 1024 * 1024 * 2 - 20, result[0].getEstimatedRemainingBytes());
+	}
+
+	@Test
+	public void namedInstancesShareOriginUsage() {
+		TestUI ui = new TestUI();
+		MemoryStorageBackend storage = new MemoryStorageBackend();
+		LocalStorageUsageTracker usage = new LocalStorageUsageTracker();
+		LocalStorageResponder a = new LocalStorageResponder(
+				LocalStorage.getCurrent(ui, "a"), storage, usage);
+		LocalStorageResponder b = new LocalStorageResponder(
+				LocalStorage.getCurrent(ui, "b"), storage, usage);
+		storage.setItem("other", "x");
+		Assert.assertEquals(2 * 6, getUsage(b, "").getUsedBytes());
+
+		a.getLocalStorage().setItem("k", "1");
+		a.respond();
+		b.getLocalStorage().setItem("k", "22");
+		b.respond();
+		LocalStorageUsage used = getUsage(b, "");
+		// "other", "a:k" and "b:k" count against the quota of the origin
+		Assert.assertEquals(2 * (6 + 4 + 5), used.getUsedBytes());
+		Assert.assertEquals(3, used.getItemCount());
+		Assert.assertEquals(2 * 5, used.getUsedBytes(""));
+		Assert.assertEquals(1, used.getItemCount(""));
+		Assert.assertEquals(5 * 1024 * 1024 * 2 - 2 * 15, used.getEstimatedRemainingBytes());
+
+		b.getLocalStorage().clear();
+		b.respond();
+		Assert.assertEquals(2 * (6 + 4), getUsage(a, "").getUsedBytes());
+	}
+
+	@Test
+	public void itemUpdateEventDelay() {
+		LocalStorage localStorage = newResponder().getLocalStorage();
+		Assert.assertEquals(0, localStorage.getItemUpdateEventDelay());
+		localStorage.setItemUpdateEventDelay(500);
+		Assert.assertEquals(500, localStorage.getItemUpdateEventDelay());
+		try {
+			localStorage.setItemUpdateEventDelay(-1);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals(500, localStorage.getItemUpdateEventDelay());
+		}
+	}
+
+	@Test
+	public void itemUpdateInvocationsMergePerKey() {
+		// Mirrors the last-only queue of the client-side ApplicationConnection
+		Map<String, LocalStorageItemUpdateInvocation> queue =
+				new LinkedHashMap<String, LocalStorageItemUpdateInvocation>();
+		LocalStorageItemUpdateInvocation[] invocations = new LocalStorageItemUpdateInvocation[] {
+				new LocalStorageItemUpdateInvocation("1", "triggerItemUpdateEvent", "a", "a", null, "1"),
+				new LocalStorageItemUpdateInvocation("1", "triggerItemUpdateEvent", "b", "b", null, "1"),
+				new LocalStorageItemUpdateInvocation("1", "triggerItemUpdateEvent", "a", "a", "1", "2"),
+				new LocalStorageItemUpdateInvocation("1", "triggerItemUpdateEvent", null, null, null, null),
+				new LocalStorageItemUpdateInvocation("1", "triggerItemUpdateEvent", "clear", "clear", null, "1"),
+				new LocalStorageItemUpdateInvocation("1", "triggerItemChangedEvent", "a", "a", false),
+				new LocalStorageItemUpdateInvocation("2", "triggerItemUpdateEvent", "a", "a", null, "3") };
+		for (LocalStorageItemUpdateInvocation invocation : invocations) {
+			queue.remove(invocation.getLastOnlyTag());
+			queue.put(invocation.getLastOnlyTag(), invocation);
+		}
+		Assert.assertEquals(Arrays.asList(invocations[1], invocations[2], invocations[3],
+				invocations[4], invocations[5], invocations[6]),
+				new ArrayList<LocalStorageItemUpdateInvocation>(queue.values()));
+	}
+
+	@Test
+	public void lazyItemUpdateEventFetchesDataOnce() {
+		final LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		final List<LocalStorage.ItemUpdateEvent> events = new ArrayList<LocalStorage.ItemUpdateEvent>();
+		localStorage.setLazyItemUpdateEvents(true);
+		localStorage.addItemUpdateListener(new LocalStorage.ItemUpdateListener() {
+
+			@Override
+			public void onUpdate(LocalStorage.ItemUpdateEvent event) {
+				events.add(event);
+			}
+
+		});
+		responder.getStorage().setItem("key", "old");
+
+		responder.fireStorageEvent("key", "new");
+		LocalStorage.ItemUpdateEvent event = events.get(0);
+		Assert.assertEquals(LocalStorage.ItemUpdateEvent.Type.UPDATE, event.getType());
+		Assert.assertFalse(event.isDataLoaded());
+		Assert.assertNull(event.getItem().getData());
+		RecordingCallback first = new RecordingCallback();
+		RecordingCallback second = new RecordingCallback();
+		event.fetchItem(first);
+		event.fetchItem(second);
+		Assert.assertEquals(1, responder.respond());
+		Assert.assertEquals("old", first.item.getOldData());
+		Assert.assertEquals("new", second.item.getData());
+		Assert.assertTrue(event.isDataLoaded());
+
+		responder.fireStorageEvent("key", null);
+		Assert.assertEquals(LocalStorage.ItemUpdateEvent.Type.REMOVE, events.get(1).getType());
+	}
+
+	@Test
+	public void lazyItemUpdateEventReportsForgottenOldData() {
+		final LocalStorageResponder responder = newResponder();
+		LocalStorage localStorage = responder.getLocalStorage();
+		final List<LocalStorage.ItemUpdateEvent> events = new ArrayList<LocalStorage.ItemUpdateEvent>();
+		localStorage.setLazyItemUpdateEvents(true);
+		localStorage.addItemUpdateListener(new LocalStorage.ItemUpdateListener() {
+
+			@Override
+			public void onUpdate(LocalStorage.ItemUpdateEvent event) {
+				events.add(event);
+			}
+
+		});
+		for (int i = 0; i <= 100; i++) {
+			responder.fireStorageEvent("key" + i, "new");
+		}
+		RecordingCallback forgotten = new RecordingCallback();
+		RecordingCallback remembered = new RecordingCallback();
+		events.get(0).fetchItem(forgotten);
+		events.get(100).fetchItem(remembered);
+		responder.respond();
+		Assert.assertEquals("key0", forgotten.errorKey);
+		Assert.assertNull(forgotten.item);
+		Assert.assertEquals(0, remembered.errors);
+		Assert.assertNull(remembered.item.getOldData());
+		Assert.assertEquals("new", remembered.item.getData());
+	}
+
+	@Test
+	@SuppressWarnings("serial")
+	public void deferredWriteExceedingQuotaFails() {
+		LocalStorageResponder responder = new LocalStorageResponder(
+				LocalStorage.getCurrent(new TestUI()), 10);
+		LocalStorage localStorage = responder.getLocalStorage();
+		final LocalStorageUsage[] result = new LocalStorageUsage[1];
+		LocalStorageUsageCallback usageCallback = new LocalStorageUsageCallback() {
+
+			@Override
+			public void onSuccess(LocalStorageUsage usage) {
+				result[0] = usage;
+			}
+
+			@Override
+			public void onError() {
+				Assert.fail();
+			}
+
+		};
+		RecordingCallback first = new RecordingCallback();
+		RecordingCallback second = new RecordingCallback();
+		localStorage.setDeferWrites(true);
+		localStorage.getUsage(usageCallback);
+		responder.respond();
+
+		localStorage.setItem("a", "1", first);
+		localStorage.setItem("a", "12345", first);
+		localStorage.setItem("b", "123456789", second);
+		responder.respond();
+		Assert.assertEquals("12345", responder.getStorage().getItem("a"));
+		Assert.assertEquals(0, first.errors);
+		Assert.assertEquals("b", second.errorKey);
+
+		localStorage.getUsage(usageCallback);
+		responder.respond();
+		Assert.assertEquals(2 * 6, result[0].getUsedBytes());
+		Assert.assertEquals(0, result[0].getEstimatedRemainingBytes());
+	}
+
+	@Test
+	@SuppressWarnings("serial")
+	public void registryReturnsNamedInstances() {
+		TestUI ui = new TestUI();
+		VaadinSession session = new VaadinSession(null) {
+
+			@Override
+			public boolean hasLock() {
+				return true;
+			}
+
+		};
+		LocalStorage unattached = LocalStorage.getCurrent(ui);
+		Assert.assertSame(unattached, LocalStorage.getCurrent(ui));
+		ui.setSession(session);
+		Assert.assertSame(unattached, LocalStorage.getCurrent(ui));
+
+		LocalStorage named = LocalStorage.getCurrent(ui, "other");
+		Assert.assertNotSame(unattached, named);
+		Assert.assertSame(named, LocalStorage.getCurrent(ui, "other"));
+		Assert.assertEquals("other", named.getName());
+		Assert.assertEquals(LocalStorage.DEFAULT_NAME, unattached.getName());
+
+		named.remove();
+		Assert.assertNotSame(named, LocalStorage.getCurrent(ui, "other"));
+		ui.setSession(null);
+		Assert.assertNull(session.getAttribute(LocalStorageRegistry.class));
+	}
+
+	@Test
+	public void namedInstancesUseOwnNamespaces() {
+		TestUI ui = new TestUI();
+		MemoryStorageBackend storage = new MemoryStorageBackend();
+		LocalStorageResponder a = new LocalStorageResponder(LocalStorage.getCurrent(ui, "a"), storage);
+		LocalStorageResponder b = new LocalStorageResponder(LocalStorage.getCurrent(ui, "b"), storage);
+		b.getLocalStorage().setDeferWrites(true);
+		RecordingCallback cached = new RecordingCallback();
+		b.getLocalStorage().getItem("k", cached);
+		b.respond();
+		Assert.assertNull(cached.item.getData());
+
+		a.getLocalStorage().setItem("k", "1");
+		a.respond();
+		b.getLocalStorage().setItem("k", "2");
+		b.respond();
+		RecordingCallback readA = new RecordingCallback();
+		RecordingCallback readB = new RecordingCallback();
+		a.getLocalStorage().getItem("k", readA);
+		b.getLocalStorage().getItem("k", readB);
+		a.respond();
+		b.respond();
+		Assert.assertEquals("1", readA.item.getData());
+		Assert.assertEquals("2", readB.item.getData());
+		Assert.assertEquals("1", storage.getItem("a:k"));
+		Assert.assertEquals("2", storage.getItem("b:k"));
+		Assert.assertEquals(Arrays.asList("k"),
+				queryKeys(b, new LocalStorageQuery("")));
+		Assert.assertEquals("k", b.getExecutor().toKey("b:k"));
+		Assert.assertNull(b.getExecutor().toKey("a:k"));
+
+		b.getLocalStorage().clear();
+		b.respond();
+		Assert.assertNull(storage.getItem("b:k"));
+		Assert.assertEquals("1", storage.getItem("a:k"));
+		try {
+			LocalStorage.getCurrent(ui, "a:b");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// Would share the namespace of "a"
+		}
+	}
+
+	@Test
+	public void syncCoalescesAndResolvesConflicts() throws IOException {
+		LocalStorageMemoryStore store = new LocalStorageMemoryStore();
+		LocalStorageResponder deviceA = newResponder();
+		LocalStorageResponder deviceB = newResponder();
+		deviceA.getLocalStorage().setSync(new LocalStorageSync(store, "user", "app."));
+		deviceB.getLocalStorage().setSync(new LocalStorageSync(store, "user", "app."));
+
+		deviceA.getLocalStorage().setItem("app.a", "1");
+		deviceA.getLocalStorage().setItem("app.a", "2");
+		deviceA.getLocalStorage().setItem("other", "x");
+		deviceA.respond();
+		Assert.assertTrue(store.load("user", "").isEmpty());
+		deviceA.getLocalStorage().getSync().flush();
+		List<LocalStorageStore.Entry> entries = store.load("user", "");
+		Assert.assertEquals(1, entries.size());
+		Assert.assertEquals("2", entries.get(0).getData());
+		Assert.assertEquals(1, entries.get(0).getVersion());
+
+		RecordingCallback restored = new RecordingCallback();
+		deviceB.getLocalStorage().getSync().restore(restored);
+		Assert.assertEquals(1, deviceB.respond());
+		Assert.assertNotNull(restored.item);
+		Assert.assertEquals("2", deviceB.getStorage().getItem("app.a"));
+
+		deviceA.getLocalStorage().setItem("app.a", "3");
+		deviceA.respond();
+		deviceA.getLocalStorage().getSync().flush();
+		deviceB.getLocalStorage().setItem("app.a", "stale");
+		deviceB.respond();
+		deviceB.getLocalStorage().getSync().flush();
+		deviceB.respond();
+		Assert.assertEquals("3", deviceB.getStorage().getItem("app.a"));
+		Assert.assertEquals(2, store.load("user", "app.").get(0).getVersion());
+
+		deviceA.getLocalStorage().clear();
+		deviceA.respond();
+		deviceA.getLocalStorage().getSync().flush();
+		Assert.assertNull(store.load("user", "app.").get(0).getData());
+	}
+
+	@Test
+	public void syncSkipsFailedWrites() throws IOException {
+		LocalStorageMemoryStore store = new LocalStorageMemoryStore();
+		LocalStorageResponder responder = new LocalStorageResponder(
+				LocalStorage.getCurrent(new TestUI()), 10);
+		LocalStorage localStorage = responder.getLocalStorage();
+		localStorage.setSync(new LocalStorageSync(store, "user", "app."));
+
+		localStorage.setItem("app.a", "1");
+		localStorage.setItem("app.b", "this exceeds the quota");
+		responder.respond();
+		localStorage.getSync().flush();
+		List<LocalStorageStore.Entry> entries = store.load("user", "app.");
+		Assert.assertEquals(1, entries.size());
+		Assert.assertEquals("app.a", entries.get(0).getKey());
+		Assert.assertNull(responder.getStorage().getItem("app.b"));
+	}
+
+	@Test
+	public void syncedWritesDontFetchOldData() {
+		LocalStorage localStorage = LocalStorage.getCurrent(new TestUI());
+		localStorage.setSync(new LocalStorageSync(new LocalStorageMemoryStore(), "user", "app."));
+
+		localStorage.setItem("app.a", "1");
+		localStorage.setItem("app.b", "2", new RecordingCallback());
+		localStorage.beforeClientResponse(false);
+		List<ClientMethodInvocation> calls = localStorage.retrievePendingRpcCalls();
+		Assert.assertEquals(2, calls.size());
+		Assert.assertEquals("setItem", calls.get(0).getMethodName());
+		Assert.assertEquals(Boolean.FALSE, calls.get(0).getParameters()[3]);
+		Assert.assertEquals(Boolean.TRUE, calls.get(1).getParameters()[3]);
+	}
+
+	@Test
+	public void syncKeepsSharedStoreAfterDeserialization() throws Exception {
+		LocalStorage localStorage = LocalStorage.getCurrent(new TestUI());
+		localStorage.setSync(new LocalStorageSync(new SharedStoreProvider(), "user"));
+		TestUI copy = (TestUI) new ObjectInputStream(new ByteArrayInputStream(
+				serialize(localStorage.getParent()))).readObject();
+		Assert.assertSame(SharedStoreProvider.STORE,
+				LocalStorage.getCurrent(copy).getSync().getStore());
+
+		localStorage.setSync(new LocalStorageSync(new LocalStorageMemoryStore(), "user"));
+		try {
+			serialize(localStorage.getParent());
+			Assert.fail();
+		} catch (NotSerializableException e) {
+			// A plain store can't be shared after deserialization
+		}
+	}
+
+	@Test
+	public void fileStoreInstancesShareOwnerFile() throws Exception {
+		final File directory = new File(System.getProperty("java.io.tmpdir"),
+				"localstorage-test-" + System.nanoTime());
+		try {
+			List<Thread> threads = new ArrayList<Thread>();
+			final List<IOException> errors = new ArrayList<IOException>();
+			for (int t = 0; t < 2; t++) {
+				final String prefix = "t" + t + ".";
+				threads.add(new Thread() {
+
+					@Override
+					public void run() {
+						LocalStorageFileStore store = new LocalStorageFileStore(directory);
+						try {
+							for (int i = 0; i < 50; i++) {
+								store.write("user", Arrays.asList(
+										new LocalStorageStore.Entry(prefix + i, "x", 1)));
+							}
+						} catch (IOException e) {
+							synchronized (errors) {
+								errors.add(e);
+							}
+						}
+					}
+
+				});
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			Assert.assertTrue(errors.isEmpty());
+			Assert.assertEquals(100, new LocalStorageFileStore(directory).load("user", "").size());
+			Assert.assertEquals(1, directory.listFiles().length);
+		} finally {
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void fileStoreKeepsEntries() throws IOException {
+		File directory = new File(System.getProperty("java.io.tmpdir"),
+				"localstorage-test-" + System.nanoTime());
+		try {
+			StringBuilder large = new StringBuilder();
+			for (int i = 0; i < 40000; i++) {
+				large.append('\u00e4');
+			}
+			List<LocalStorageStore.Entry> changes = Arrays.asList(
+					new LocalStorageStore.Entry("a", large.toString(), 1),
+					new LocalStorageStore.Entry("b", null, 3));
+			Assert.assertTrue(new LocalStorageFileStore(directory).write("user@x/y", changes).isEmpty());
+
+			LocalStorageFileStore store = new LocalStorageFileStore(directory);
+			List<LocalStorageStore.Entry> entries = store.load("user@x/y", "");
+			Assert.assertEquals(2, entries.size());
+			Assert.assertEquals(large.toString(), entries.get(0).getData());
+			Assert.assertNull(entries.get(1).getData());
+			Assert.assertEquals(3, entries.get(1).getVersion());
+			Assert.assertTrue(store.load("other", "").isEmpty());
+
+			List<LocalStorageStore.Entry> conflicts = store.write("user@x/y", Arrays.asList(
+					new LocalStorageStore.Entry("a", "new", 1)));
+			Assert.assertEquals(1, conflicts.size());
+			Assert.assertEquals(large.toString(), conflicts.get(0).getData());
+
+			String longOwner = large.substring(0, 300);
+			Assert.assertTrue(store.write(longOwner, changes).isEmpty());
+			Assert.assertEquals(2, store.load(longOwner, "").size());
+		} finally {
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void snapshotCodecCompresses() {
+		List<String> keys = new ArrayList<String>();
+		List<String> data = new ArrayList<String>();
+		for (int i = 0; i < 500; i++) {
+			keys.add("app.user." + i);
+			data.add(i % 7 == 0 ? null : "{\"name\":\"user\u00e4" + i + "\",\"active\":true}");
+		}
+		byte[] encoded = LocalStorageSnapshotCodec.encode("app.", keys, data);
+		Assert.assertTrue(encoded.length < 8000);
+
+		List<String> decodedKeys = new ArrayList<String>();
+		List<String> decodedData = new ArrayList<String>();
+		Assert.assertEquals("app.", LocalStorageSnapshotCodec.decode(encoded, decodedKeys, decodedData));
+		Assert.assertEquals(keys, decodedKeys);
+		Assert.assertEquals(data, decodedData);
+
+		byte[] huge = Arrays.copyOf(encoded, 12);
+		huge[4] = 0x7F;
+		try {
+			LocalStorageSnapshotCodec.decode(huge, new ArrayList<String>(), new ArrayList<String>());
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// The header length exceeds what two code units can expand to
+		}
+
+		encoded[encoded.length / 2] ^= 0x55;
+		try {
+			LocalStorageSnapshotCodec.decode(Arrays.copyOf(encoded, encoded.length - 3),
+					new ArrayList<String>(), new ArrayList<String>());
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void snapshotsFailWithoutSnapshotFormat() {
+		LocalStorageResponder responder = newResponder();
+		responder.getExecutor().setSnapshotFormat(null);
+		responder.getStorage().setItem("app.a", "1");
+		SnapshotResult snapshot = new SnapshotResult();
+		responder.getLocalStorage().snapshot("app.", new ByteArrayOutputStream(), snapshot);
+		responder.respond();
+		Assert.assertTrue(snapshot.error);
+	}
+
+	@Test
+	public void snapshotRestoresInChunks() {
+		LocalStorageResponder source = newResponder();
+		Random random = new Random(42);
+		for (int i = 0; i < 300; i++) {
+			byte[] bytes = new byte[512];
+			random.nextBytes(bytes);
+			source.getStorage().setItem("app." + i, LocalStorageBinaryCodec.encode(bytes));
+		}
+		source.getStorage().setItem("other", "kept");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SnapshotResult snapshot = new SnapshotResult();
+		source.getLocalStorage().snapshot("app.", out, snapshot);
+		int roundTrips = 0;
+		while (source.respond() > 0) {
+			roundTrips++;
+		}
+		Assert.assertTrue(roundTrips > 2);
+		Assert.assertEquals(out.size(), snapshot.bytes);
+
+		LocalStorageResponder target = newResponder();
+		target.getStorage().setItem("app.stale", "removed");
+		target.getStorage().setItem("other", "untouched");
+		SnapshotResult restore = new SnapshotResult();
+		target.getLocalStorage().restore(new ByteArrayInputStream(out.toByteArray()), restore);
+		while (target.respond() > 0) {
+			// Next chunk
+		}
+		Assert.assertEquals(out.size(), restore.bytes);
+		Assert.assertNull(target.getStorage().getItem("app.stale"));
+		Assert.assertEquals("untouched", target.getStorage().getItem("other"));
+		for (int i = 0; i < 300; i++) {
+			Assert.assertEquals(source.getStorage().getItem("app." + i),
+					target.getStorage().getItem("app." + i));
+		}
+
+		SnapshotResult invalid = new SnapshotResult();
+		target.getLocalStorage().restore(new ByteArrayInputStream(new byte[] { 1, 2, 3 }), invalid);
+		while (target.respond() > 0) {
+			// Next chunk
+		}
+		Assert.assertTrue(invalid.error);
+		Assert.assertEquals("untouched", target.getStorage().getItem("other"));
+	}
+
+	@Test
+	public void interactiveReadsPassBackgroundWork() {
+		LocalStorageResponder responder = newResponder();
+		final LocalStorage localStorage = responder.getLocalStorage();
+		localStorage.setBackgroundBudget(10);
+		final RecordingCallback lastWrite = new RecordingCallback();
+		LocalStorage.runWithPriority(LocalStoragePriority.BACKGROUND, new Runnable() {
+
+			@Override
+			public void run() {
+				for (int i = 0; i < 49; i++) {
+					localStorage.setItem("warm." + i, "value" + i);
+				}
+				localStorage.setItem("warm.49", "value49", lastWrite);
+				localStorage.setItem("user", "fresh");
+			}
+
+		});
+		RecordingCallback read = new RecordingCallback();
+		RecordingCallback unrelated = new RecordingCallback();
+		localStorage.getItem("user", read);
+		localStorage.getItem("other", unrelated);
+
+		// Both reads, the promoted write, 10 background writes and the poll
+		Assert.assertEquals(14, responder.respond());
+		Assert.assertEquals("fresh", read.item.getData());
+		Assert.assertNull(unrelated.item.getData());
+		Assert.assertNull(lastWrite.item);
+
+		int roundTrips = 1;
+		while (responder.respond() > 0) {
+			roundTrips++;
+		}
+		Assert.assertEquals(5, roundTrips);
+		Assert.assertEquals("value49", lastWrite.item.getData());
+		Assert.assertEquals(51, responder.getStorage().getLength());
+	}
+
+	@Test
+	public void interactiveOperationsPromoteOnlyConflictingWork() {
+		LocalStorageResponder responder = newResponder();
+		final LocalStorage localStorage = responder.getLocalStorage();
+		localStorage.setBackgroundBudget(10);
+		final Map<String, String> batch = new LinkedHashMap<String, String>();
+		batch.put("batch.a", "1");
+		batch.put("batch.b", "2");
+		LocalStorage.runWithPriority(LocalStoragePriority.BACKGROUND, new Runnable() {
+
+			@Override
+			public void run() {
+				for (int i = 0; i < 5000; i++) {
+					localStorage.setItem("warm." + i, "value" + i);
+				}
+				localStorage.setItems(batch);
+			}
+
+		});
+		RecordingCallback warm = new RecordingCallback();
+		RecordingCallback other = new RecordingCallback();
+		for (int i = 0; i < 5000; i += 1000) {
+			localStorage.getItem("other." + i, other);
+		}
+		localStorage.getItem("warm.4999", warm);
+		Assert.assertEquals(Arrays.asList("batch.a", "batch.b"),
+				queryKeys(responder, new LocalStorageQuery("batch.")));
+		Assert.assertEquals("value4999", warm.item.getData());
+		Assert.assertEquals(0, other.errors);
+		// Only the read, the batch and 10 background writes went through
+		Assert.assertEquals(2 + 10 + 1, responder.getStorage().getLength());
+
+		RecordingCallback cleared = new RecordingCallback();
+		localStorage.clear(cleared);
+		responder.respond();
+		Assert.assertEquals(0, responder.getStorage().getLength());
+		Assert.assertEquals(0, cleared.errors);
+		Assert.assertEquals(0, responder.respond());
+	}
+
+	@SuppressWarnings("serial")
+	static LocalStorageUsage getUsage(LocalStorageResponder responder, String... prefixes) {
+		final LocalStorageUsage[] result = new LocalStorageUsage[1];
+		responder.getLocalStorage().getUsage(new LocalStorageUsageCallback() {
+
+			@Override
+			public void onSuccess(LocalStorageUsage usage) {
+				result[0] = usage;
+			}
+
+			@Override
+			public void onError() {
+				Assert.fail();
+			}
+
+		}, prefixes);
+		responder.respond();
+		return result[0];
+	}
+
+	static byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	@SuppressWarnings("serial")
+	static List<String> queryKeys(LocalStorageResponder responder, LocalStorageQuery query) {
+		final List<String> keys = new ArrayList<String>();
+		final boolean[] failed = new boolean[1];
+		responder.getLocalStorage().query(query, new LocalStorageQueryCallback() {
+
+			@Override
+			public void onSuccess(List<LocalStorageItem> items) {
+				for (LocalStorageItem item : items) {
+					keys.add(item.getKey());
+				}
+			}
+
+			@Override
+			public void onError(String keyPrefix) {
+				failed[0] = true;
+			}
+
+		});
+		responder.respond();
+		Collections.sort(keys);
+		return failed[0] ? null : keys;
+	}
+
+	@SuppressWarnings("serial")
+	static VaadinService newService(final String name) throws ServiceException {
+		return new VaadinServletService(new VaadinServlet(),
+				new DefaultDeploymentConfiguration(LocalStorageTest.class, new Properties())) {
+
+			@Override
+			public String getServiceName() {
+				return name;
+			}
+
+		};
+	}
+
+	@SuppressWarnings("serial")
+	static UI newUI(VaadinService service) {
+		UI ui = new TestUI();
+		ui.setSession(new VaadinSession(service) {
+
+			@Override
+			public boolean hasLock() {
+				return true;
+			}
+
+		});
+		return ui;
+	}
+
+	static LocalStorageResponder newResponder() {
+		return new LocalStorageResponder(LocalStorage.getCurrent(new TestUI()));
+	}
+
+	@SuppressWarnings("serial")
+	static class SnapshotResult implements LocalStorageSnapshotCallback {
+
+		long bytes = -1;
+
+		boolean error = false;
+
+		@Override
+		public void onSuccess(long bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public void onError() {
+			error = true;
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	static class RecordingCallback implements LocalStorageItemCallback {
+
+		LocalStorageItem item;
+
+		String errorKey;
+
+		int errors = 0;
+
+		@Override
+		public void onSuccess(LocalStorageItem item) {
+			this.item = item;
+		}
+
+		@Override
+		public void onError(String key) {
+			this.errorKey = key;
+			errors++;
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	static class SerializableCallback implements LocalStorageItemCallback {
+
+		static final List<String> errorKeys = new ArrayList<String>();
+
+		@Override
+		public void onSuccess(LocalStorageItem item) { }
+
+		@Override
+		public void onError(String key) {
+			errorKeys.add(key);
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	static class SerializableQueryCallback implements LocalStorageQueryCallback {
+
+		static final List<String> errorPrefixes = new ArrayList<String>();
+
+		@Override
+		public void onSuccess(List<LocalStorageItem> items) { }
+
+		@Override
+		public void onError(String keyPrefix) {
+			errorPrefixes.add(keyPrefix);
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	static class SharedStoreProvider implements LocalStorageStoreProvider {
+
+		static final LocalStorageStore STORE = new LocalStorageMemoryStore();
+
+		@Override
+		public LocalStorageStore getStore() {
+			return STORE;
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	static class TestUI extends UI {
+
+		@Override
+		protected void init(VaadinRequest request) { }
+
+	}
 }